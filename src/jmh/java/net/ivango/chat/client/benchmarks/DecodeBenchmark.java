@@ -0,0 +1,76 @@
+package net.ivango.chat.client.benchmarks;
+
+import net.ivango.chat.client.io.BufferPool;
+import net.ivango.chat.client.io.Codecs;
+import net.ivango.chat.client.io.FrameDecoder;
+import net.ivango.chat.client.io.MessageCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound path of the read handler: the socket reads are split into frames and mapped to the messages.
+ * The score is the number of decoded messages per second.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    private static final int MESSAGES = 256;
+    /** size of a single socket read */
+    private static final int READ_SIZE = 8192;
+
+    @Param({"64", "1024", "16384"})
+    private int messageSize;
+
+    @Param({"json", "binary"})
+    private String codecName;
+
+    private MessageCodec codec;
+    private BufferPool bufferPool;
+    private ByteBuffer stream;
+    private Blackhole blackhole;
+
+    private final FrameDecoder.FrameHandler handler = frame -> {
+        try {
+            blackhole.consume(codec.decode(frame));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return true;
+    };
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        this.codec = Codecs.create(codecName);
+        this.bufferPool = new BufferPool(READ_SIZE, 4);
+        this.stream = Fixtures.encodedStream(codec, MESSAGES, messageSize);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void decode() throws IOException {
+        FrameDecoder decoder = codec.newFrameDecoder(bufferPool);
+        ByteBuffer input = stream.duplicate();
+        while (input.hasRemaining()) {
+            /* emulate the socket read */
+            ByteBuffer readBuffer = decoder.getReadBuffer();
+            int chunk = Math.min(Math.min(readBuffer.remaining(), input.remaining()), READ_SIZE);
+            ByteBuffer slice = input.duplicate();
+            slice.limit(input.position() + chunk);
+            readBuffer.put(slice);
+            input.position(input.position() + chunk);
+
+            decoder.decode(handler);
+        }
+        decoder.release();
+    }
+}
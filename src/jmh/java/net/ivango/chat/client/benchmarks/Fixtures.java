@@ -0,0 +1,75 @@
+package net.ivango.chat.client.benchmarks;
+
+import net.ivango.chat.client.io.MessageCodec;
+import net.ivango.chat.common.requests.SendMessageRequest;
+import net.ivango.chat.common.responses.User;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test data shared by the benchmarks.
+ * */
+class Fixtures {
+
+    /**
+     * Returns a chat message with the text of the given length.
+     * */
+    static SendMessageRequest message(int textLength) {
+        char[] text = new char[textLength];
+        Arrays.fill(text, 'x');
+        return new SendMessageRequest("127.0.0.1:50001", new String(text), false);
+    }
+
+    /**
+     * Returns the stream of the encoded messages written back to back, as they arrive from the socket.
+     * */
+    static ByteBuffer encodedStream(MessageCodec codec, int count, int textLength) {
+        List<ByteBuffer> frames = new ArrayList<>(count);
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer frame = codec.encode(message(textLength));
+            frames.add(frame);
+            size += frame.remaining();
+        }
+        ByteBuffer stream = ByteBuffer.allocateDirect(size);
+        for (ByteBuffer frame : frames) {
+            stream.put(frame);
+        }
+        stream.flip();
+        return stream;
+    }
+
+    /**
+     * Returns the users with random names and unique addresses.
+     * */
+    static List<User> users(int count, Random random) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(user("user" + random.nextInt(count * 10), "10.0." + (i >> 8) + "." + (i & 0xFF)));
+        }
+        return users;
+    }
+
+    static User user(String userName, String address) {
+        return new BenchmarkUser(userName, address);
+    }
+
+    private static class BenchmarkUser extends User {
+        private final String userName, address;
+
+        private BenchmarkUser(String userName, String address) {
+            this.userName = userName;
+            this.address = address;
+        }
+
+        @Override
+        public String getUserName() { return userName; }
+
+        @Override
+        public String getAddress() { return address; }
+    }
+}
@@ -0,0 +1,69 @@
+package net.ivango.chat.client.benchmarks;
+
+import javafx.collections.ListChangeListener;
+import net.ivango.chat.client.ui.MessageHistory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of applying the received messages to the chat history, including the change notification
+ * observed by the list view. The score is the time per batch.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+
+    private static final int HISTORY_WINDOW = 1000;
+
+    @Param({"1", "100", "2000"})
+    private int batchSize;
+
+    private MessageHistory history;
+    private List<String> batch;
+
+    @Setup(Level.Iteration)
+    public void setUp(Blackhole blackhole) {
+        /* a fresh history per iteration, so the archive does not grow unbounded */
+        history = new MessageHistory(HISTORY_WINDOW);
+        history.addListener((ListChangeListener<String>) change -> {
+            while (change.next()) {
+                blackhole.consume(change.getAddedSize());
+            }
+        });
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add("[12:00:00] Sender: a chat message number " + i);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        history.close();
+    }
+
+    /**
+     * The whole batch is applied with a single change, as the event dispatcher does.
+     * */
+    @Benchmark
+    public void batchApply() {
+        history.addAll(batch);
+    }
+
+    /**
+     * Every message is applied separately, a change per message.
+     * */
+    @Benchmark
+    public void perMessageApply() {
+        for (String line : batch) {
+            history.add(line);
+        }
+    }
+}
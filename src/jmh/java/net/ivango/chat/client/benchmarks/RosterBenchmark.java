@@ -0,0 +1,80 @@
+package net.ivango.chat.client.benchmarks;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import net.ivango.chat.client.ui.RosterModel;
+import net.ivango.chat.common.responses.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a roster update depending on the number of online users.
+ * The "fullSort" benchmark is the former behaviour: every user list was sorted and set as a whole.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RosterBenchmark {
+
+    /** share of the users replaced between the two snapshots, in percent */
+    private static final int CHURN_PERCENT = 1;
+
+    @Param({"100", "1000", "10000", "50000"})
+    private int userCount;
+
+    private RosterModel roster;
+    private List<User> snapshot, changedSnapshot;
+    private boolean changed;
+    private User joining;
+    private ObservableList<User> sortedList;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        snapshot = Fixtures.users(userCount, random);
+        changedSnapshot = new ArrayList<>(snapshot);
+        for (int i = 0; i < Math.max(1, userCount * CHURN_PERCENT / 100); i++) {
+            changedSnapshot.set(random.nextInt(userCount), Fixtures.user("joined" + i, "10.1.0." + i));
+        }
+        joining = Fixtures.user("joining", "10.2.0.1");
+
+        roster = new RosterModel();
+        roster.setUsers(snapshot);
+        sortedList = FXCollections.observableArrayList();
+    }
+
+    /**
+     * A polled user list which differs from the current one by a few users.
+     * */
+    @Benchmark
+    public RosterModel snapshotUpdate() {
+        changed = !changed;
+        roster.setUsers(changed ? changedSnapshot : snapshot);
+        return roster;
+    }
+
+    /**
+     * A pushed presence event: a user joins and leaves.
+     * */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public RosterModel presenceEvent() {
+        roster.applyChanges(Collections.singletonList(joining), Collections.emptyList());
+        roster.applyChanges(Collections.emptyList(), Collections.singletonList(joining));
+        return roster;
+    }
+
+    @Benchmark
+    public ObservableList<User> fullSort() {
+        changed = !changed;
+        List<User> users = new ArrayList<>(changed ? changedSnapshot : snapshot);
+        users.sort(Comparator.comparing(User::getUserName));
+        sortedList.setAll(users);
+        return sortedList;
+    }
+}
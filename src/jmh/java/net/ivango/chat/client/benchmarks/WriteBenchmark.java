@@ -0,0 +1,87 @@
+package net.ivango.chat.client.benchmarks;
+
+import net.ivango.chat.client.io.Codecs;
+import net.ivango.chat.client.io.MessageCodec;
+import net.ivango.chat.client.io.MessageWriter;
+import net.ivango.chat.common.requests.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound path of the send method: the message is encoded and written to a loopback connection.
+ * The stand-in server reads and drops everything, the score is the time until the write completes.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    private int messageSize;
+
+    @Param({"json", "binary"})
+    private String codecName;
+
+    private AsynchronousServerSocketChannel server;
+    private AsynchronousSocketChannel serverSide, channel;
+    private MessageCodec codec;
+    private MessageWriter writer;
+    private Message message;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        channel = AsynchronousSocketChannel.open();
+        channel.connect(server.getLocalAddress()).get();
+        serverSide = server.accept().get();
+        drain(ByteBuffer.allocateDirect(64 * 1024));
+
+        codec = Codecs.create(codecName);
+        writer = new MessageWriter(channel, Long.MAX_VALUE);
+        message = Fixtures.message(messageSize);
+    }
+
+    @Benchmark
+    public void encodeAndWrite() {
+        writer.write(codec.encode(message)).join();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        writer.close();
+        channel.close();
+        serverSide.close();
+        server.close();
+    }
+
+    /**
+     * Reads the server side of the connection until it is closed.
+     * */
+    private void drain(ByteBuffer buffer) {
+        serverSide.read(buffer, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer bytesRead, Void attachment) {
+                if (bytesRead >= 0) {
+                    buffer.clear();
+                    serverSide.read(buffer, null, this);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                /* the connection is closed by the tear down */
+            }
+        });
+    }
+}
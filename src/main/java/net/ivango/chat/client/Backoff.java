@@ -0,0 +1,33 @@
+package net.ivango.chat.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter used between the reconnect attempts.
+ * The n-th delay is picked randomly from [cap / 2, cap] where cap = min(maxDelay, baseDelay * 2^n),
+ * so the clients dropped by a server restart do not come back all at once.
+ * */
+public class Backoff {
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private int attempts;
+
+    public Backoff(long baseDelay, long maxDelay) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Returns the delay before the next attempt, in milliseconds.
+     * */
+    public long nextDelay() {
+        long cap = Math.min(maxDelay, baseDelay << Math.min(attempts, 30));
+        attempts++;
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    public int getAttempts() { return attempts; }
+
+    public void reset() { attempts = 0; }
+}
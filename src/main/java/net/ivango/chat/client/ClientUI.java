@@ -5,22 +5,34 @@ import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
+import javafx.scene.control.Tab;
 import javafx.scene.layout.Pane;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import net.ivango.chat.client.io.IoRuntime;
+import net.ivango.chat.client.metrics.MetricsReporter;
 import net.ivango.chat.client.misc.CloseAppCallback;
 import net.ivango.chat.client.misc.ErrorDialogCallback;
-import net.ivango.chat.client.misc.SendMessageCallback;
+import net.ivango.chat.client.misc.NewSessionCallback;
 import net.ivango.chat.client.misc.WelcomeCallback;
 import net.ivango.chat.client.ui.ErrorDialogController;
 import net.ivango.chat.client.ui.MainFormController;
+import net.ivango.chat.client.ui.SessionsFormController;
+import net.ivango.chat.client.ui.ViewLoader;
 import net.ivango.chat.client.ui.WelcomeFormController;
+import org.apache.log4j.LogManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.ConnectException;
-import java.util.concurrent.ExecutionException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Main class of the application:
@@ -31,14 +43,26 @@ import java.util.concurrent.ExecutionException;
 public class ClientUI extends Application {
 
     private Stage primaryStage;
-    private NetworkController networkController;
-    private SendMessageCallback sendMessageCallback;
+    /** connections to the chat servers, all share the same I/O threads */
+    private SessionManager sessionManager;
+    /** exposes the metrics of the sessions over JMX and dumps them to a file */
+    private MetricsReporter metricsReporter;
+    /** window with a tab per session, shown once the first session is connected */
+    private SessionsFormController sessionsFormController;
+    /** the welcome form used to connect, shown in a separate window for the further sessions */
+    private WelcomeFormController welcomeFormController;
+    private Stage connectStage;
+    /** loads the views, the ones needed next are parsed in the background */
+    private ViewLoader viewLoader;
+    /** the dialogs are built once and reused, used on the Java FX thread only */
+    private final Map<String, DialogView> dialogs = new HashMap<>();
 
     private static Logger logger = LoggerFactory.getLogger(ClientUI.class);
 
     /** JAVA FX2 UI resources */
     public static final String MAIN_FORM_VIEW_FXML      = "ui/main_form.fxml",
                                WELCOME_FORM_VIEW_FXML   = "ui/welcome_form.fxml",
+                               SESSIONS_FORM_VIEW_FXML  = "ui/sessions_form.fxml",
                                ERROR_DIALOG             = "ui/error_dialog.fxml",
                                INPUT_VALIDATION_DIALOG  = "ui/input_validation_dialog.fxml";
 
@@ -47,7 +71,17 @@ public class ClientUI extends Application {
     private CloseAppCallback closeAppCallback = new CloseAppCallback(){
         public void closeApp() {
             primaryStage.hide();
-            networkController.onApplicationClose();
+            if (sessionManager != null) {
+                sessionManager.closeAll();
+            }
+            if (metricsReporter != null) {
+                metricsReporter.stop();
+            }
+            if (viewLoader != null) {
+                viewLoader.shutdown();
+            }
+            /* flushes the events queued by the async appender */
+            LogManager.shutdown();
             Platform.exit();
             System.exit(0);
         }
@@ -60,21 +94,10 @@ public class ClientUI extends Application {
             Task<Void> task = new Task<Void>() {
                 protected Void call() throws Exception {
                     try {
-                        FXMLLoader loader = new FXMLLoader(ClientUI.class.getResource(INPUT_VALIDATION_DIALOG));
-                        Pane rootPane = loader.load();
-                        ErrorDialogController controller = loader.getController();
-
-                        Stage dialog = new Stage();
-                        dialog.initModality(Modality.APPLICATION_MODAL);
-                        dialog.initOwner(primaryStage);
-                        Scene scene = new Scene(rootPane, 520, 180);
-                        dialog.setScene(scene);
-                        dialog.setResizable(false);
-
-                        controller.initialize(closeAppCallback, dialog, primaryStage, errorMessage);
-                        controller.disableClosing();
-
-                        dialog.show();
+                        DialogView dialog = getDialog(INPUT_VALIDATION_DIALOG, 520, 180);
+                        dialog.controller.initialize(closeAppCallback, dialog.stage, primaryStage, errorMessage);
+                        dialog.controller.disableClosing();
+                        dialog.stage.show();
                     } catch (IOException e) {
                         logger.error("Error during the error dialogue showing", e);
                     }
@@ -86,52 +109,97 @@ public class ClientUI extends Application {
 
         /* show an error dialogue and the close the application when user hits "OK" */
         public void showErrorDialog(String errorMessage, Exception ex){
-            Task<Void> task = new Task<Void>() {
-                protected Void call() throws Exception {
-                    try {
-                        FXMLLoader loader = new FXMLLoader(ClientUI.class.getResource(ERROR_DIALOG));
-                        Pane rootPane = loader.load();
-                        ErrorDialogController controller = loader.getController();
-
-                        Stage dialog = new Stage();
-                        dialog.initModality(Modality.APPLICATION_MODAL);
-                        dialog.initOwner(primaryStage);
-                        Scene scene = new Scene(rootPane, 520, 480);
-                        dialog.setScene(scene);
-                        dialog.setResizable(false);
-
-                        controller.initialize(closeAppCallback, dialog, primaryStage, errorMessage, ex);
-                        dialog.show();
-                    } catch (IOException e) {
-                        logger.error("Error during the error dialogue showing", e);
-                    }
-                    return null;
-                }
-            };
-            Platform.runLater( task );
+            showClosingErrorDialog(errorMessage, ex, closeAppCallback);
         }
     };
 
+    /**
+     * Shows an error dialogue, the callback is fired when user hits "OK".
+     * */
+    private void showClosingErrorDialog(String errorMessage, Exception ex, CloseAppCallback closeCallback) {
+        Task<Void> task = new Task<Void>() {
+            protected Void call() throws Exception {
+                try {
+                    DialogView dialog = getDialog(ERROR_DIALOG, 520, 480);
+                    dialog.controller.initialize(closeCallback, dialog.stage, primaryStage, errorMessage, ex);
+                    dialog.stage.show();
+                } catch (IOException e) {
+                    logger.error("Error during the error dialogue showing", e);
+                }
+                return null;
+            }
+        };
+        Platform.runLater( task );
+    }
+
+    /**
+     * Returns the dialog built from the view: the cached one, unless it is shown already, e.g. by another session.
+     * */
+    private DialogView getDialog(String view, double width, double height) throws IOException {
+        DialogView dialog = dialogs.get(view);
+        if (dialog == null || dialog.stage.isShowing()) {
+            FXMLLoader loader = viewLoader.load(view);
+            Stage stage = new Stage();
+            stage.initModality(Modality.APPLICATION_MODAL);
+            stage.initOwner(primaryStage);
+            stage.setScene(new Scene(loader.getRoot(), width, height));
+            stage.setResizable(false);
+            DialogView created = new DialogView(stage, loader.getController());
+            dialogs.putIfAbsent(view, created);
+            dialog = created;
+        }
+        return dialog;
+    }
+
+    /**
+     * Errors of a single session close only that session, the application is closed with the last one.
+     * */
+    private ErrorDialogCallback sessionErrorCallback(Session session) {
+        return new ErrorDialogCallback() {
+            public void showFailedValidationDialog(String errorMessage) {
+                errorDialogCallback.showFailedValidationDialog(errorMessage);
+            }
+
+            public void showErrorDialog(String errorMessage, Exception ex) {
+                showClosingErrorDialog(errorMessage, ex, () -> closeSession(session));
+            }
+        };
+    }
+
     @Override
     /**
      * Starts the Java FX2 application.
      * */
     public void start(Stage primaryStage) {
+        long started = System.currentTimeMillis();
         try {
             this.primaryStage = primaryStage;
-            this.networkController = new NetworkController();
-            this.sendMessageCallback = (receiver, message, broadcast) ->
-                    networkController.sendMessage(receiver, message, broadcast);
+            this.viewLoader = new ViewLoader(ClientUI.class);
+            IoRuntime ioRuntime = IoRuntime.fromSystemProperties();
+            this.sessionManager = new SessionManager(ioRuntime);
+            this.metricsReporter = MetricsReporter.fromSystemProperties(ioRuntime.getMetrics());
+            /* the JMX registration loads many classes, the welcome form does not wait for it */
+            CompletableFuture.runAsync(metricsReporter::start);
 
             /* graceful termination upon program exit */
             primaryStage.setOnCloseRequest(t -> {
                 closeAppCallback.closeApp();
             });
+            /* the minimized sessions poll their user lists rarely */
+            primaryStage.iconifiedProperty().addListener((observable, wasIconified, iconified) -> {
+                for (Session session : sessionManager.getSessions()) {
+                    updateVisibility(session);
+                }
+            });
 
             logger.debug("Initializing the layout ...");
             Task<Void> task = new Task<Void>(){
                 protected Void call() throws Exception {
                     showWelcomeDialogue();
+                    long jvmStarted = ManagementFactory.getRuntimeMXBean().getStartTime();
+                    logger.info("Welcome form shown " + (System.currentTimeMillis() - jvmStarted) + " ms after the JVM start, "
+                            + (System.currentTimeMillis() - started) + " ms after the application start.");
+                    preloadViews();
                     return null;
                 }
             };
@@ -144,53 +212,116 @@ public class ClientUI extends Application {
     }
 
     /**
-     * This function is called when user completes the first form and tries to establish a connection to server.
+     * Parses the views shown after the welcome form in the background, while the user fills the form.
+     * With "chat.client.exitAfterStartup" set the application exits then, e.g. to record the classes for the CDS archive.
+     * */
+    private void preloadViews() {
+        long start = System.nanoTime();
+        CompletableFuture.allOf(
+                viewLoader.preload(MAIN_FORM_VIEW_FXML),
+                viewLoader.preload(SESSIONS_FORM_VIEW_FXML),
+                viewLoader.preload(ERROR_DIALOG),
+                viewLoader.preload(INPUT_VALIDATION_DIALOG))
+            .thenRun(() -> {
+                logger.info("Views preloaded in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+                if (Boolean.getBoolean("chat.client.exitAfterStartup")) {
+                    Platform.runLater(closeAppCallback::closeApp);
+                }
+            });
+    }
+
+    /**
+     * This function is called when user completes the welcome form and tries to establish a connection to server.
+     * The connection is established in the background, the welcome form shows the progress meanwhile
+     * and the main panel is shown in a new tab once the client is connected.
      * */
     private WelcomeCallback welcomeCallback = new WelcomeCallback() {
         public void onConnectPressed(String userName, String hostname, int port) {
-            Task<Void> task = new Task<Void>() {
-                protected Void call() throws Exception {
-                    try {
-                        /* hide the first form */
-                        primaryStage.hide();
-                        /* show the main panel */
-                        MainFormController controller = switchToMainLayout(userName, hostname, port);
-                        logger.info("Connecting " + userName + " to " + hostname);
-                        /* establish a connection to server and perform initial requests */
-                        networkController.initConnection(userName, hostname, port, controller, errorDialogCallback);
-                    } catch (ConnectException ce) {
-                        errorDialogCallback.showErrorDialog("Server is not reachable.", null);
-                    } catch (IOException | ExecutionException | InterruptedException e) {
-                        String errorMessage = "Failed to establish connection to server.\n"
-                                + "Check the address and whether server is up and running.";
-                        logger.error(errorMessage, e);
-                        errorDialogCallback.showErrorDialog(errorMessage, null);
+            /* prepare the main panel, it receives the events from the very first response */
+            FXMLLoader loader = loadMainLayout(userName, hostname, port);
+            if (loader == null) {
+                return;
+            }
+            Session session = sessionManager.open(userName, hostname, port, loader.getController());
+            session.getMainFormController().initialize(session::sendMessage, session.getClock(), session.openHistory(),
+                    session.getFileTransfers(), session::onRosterInteraction);
+            WelcomeFormController welcomeForm = welcomeFormController;
+            welcomeForm.setConnecting(true);
+            logger.info("Connecting " + userName + " to " + hostname);
+
+            /* establish a connection to server and perform initial requests */
+            session.connect(sessionErrorCallback(session),
+                    stage -> Platform.runLater(() -> welcomeForm.onConnectionProgress(stage)))
+                .whenComplete((ignored, e) -> Platform.runLater(() -> {
+                    if (e == null) {
+                        showSession(session, loader.getRoot());
+                    } else {
+                        onConnectionFailed(session, welcomeForm, e instanceof CompletionException ? e.getCause() : e);
                     }
-                    return null;
-                }
-            };
-            Platform.runLater(task);
+                }));
         }
     };
 
     /**
-     * Switches the application to the main UI panel.
+     * Opens the welcome form in a separate window to connect one more session.
      * */
-    private MainFormController switchToMainLayout(String userName, String hostname, int port) {
+    private NewSessionCallback newSessionCallback = () -> {
+        if (connectStage != null && connectStage.isShowing()) {
+            connectStage.toFront();
+            return;
+        }
         try {
-            FXMLLoader loader = new FXMLLoader(ClientUI.class.getResource(MAIN_FORM_VIEW_FXML));
-            Pane rootLayout = loader.load();
+            FXMLLoader loader = viewLoader.load(WELCOME_FORM_VIEW_FXML);
+            Pane rootLayout = loader.getRoot();
 
-            Scene scene = new Scene(rootLayout);
-            primaryStage.setTitle("Welcome to chat");
-            primaryStage.setScene(scene);
-            primaryStage.setResizable(false);
-            primaryStage.show();
+            connectStage = new Stage();
+            connectStage.initOwner(primaryStage);
+            connectStage.setTitle("New connection");
+            connectStage.setScene(new Scene(rootLayout));
+            connectStage.setResizable(false);
+            connectStage.show();
+
+            welcomeFormController = loader.getController();
+            welcomeFormController.initialize(welcomeCallback, errorDialogCallback);
+        } catch (IOException e) {
+            logger.error("Failed to initialize the layout:", e);
+            errorDialogCallback.showErrorDialog("Failed to initialize the layout:", e);
+        }
+    };
+
+    /**
+     * Reports the failed connection attempt to the user.
+     * */
+    private void onConnectionFailed(Session session, WelcomeFormController welcomeForm, Throwable e) {
+        welcomeForm.setConnecting(false);
+        sessionManager.close(session);
+        ErrorDialogCallback errorCallback = sessionErrorCallback(session);
+        if (e instanceof UnknownHostException) {
+            errorCallback.showFailedValidationDialog("Server is not reachable.\n");
+        } else if (e instanceof ConnectException) {
+            errorCallback.showErrorDialog("Server is not reachable.", null);
+        } else if (e instanceof TimeoutException) {
+            logger.error("Connection timed out", e);
+            errorCallback.showErrorDialog(e.getMessage() + ".\nCheck the address and whether server is up and running.", null);
+        } else {
+            String errorMessage = "Failed to establish connection to server.\n"
+                    + "Check the address and whether server is up and running.";
+            logger.error(errorMessage, e);
+            errorCallback.showErrorDialog(errorMessage, null);
+        }
+    }
+
+    /**
+     * Loads the main UI panel without showing it, the panel of the next session is preloaded meanwhile.
+     * */
+    private FXMLLoader loadMainLayout(String userName, String hostname, int port) {
+        try {
+            FXMLLoader loader = viewLoader.load(MAIN_FORM_VIEW_FXML);
+            viewLoader.preload(MAIN_FORM_VIEW_FXML);
 
             MainFormController controller = loader.getController();
-            controller.initialize(sendMessageCallback);
             controller.fillUserInfo(userName, hostname, port);
-            return controller;
+            return loader;
         } catch (IOException e) {
             logger.error("Failed to initialize the layout:", e);
             errorDialogCallback.showErrorDialog("Failed to initialize the layout:", e);
@@ -198,13 +329,69 @@ public class ClientUI extends Application {
         }
     }
 
+    /**
+     * Shows the main panel of the connected session in a new tab.
+     * The first session switches the application from the welcome form to the session tabs.
+     * */
+    private void showSession(Session session, Pane mainLayout) {
+        if (sessionsFormController == null) {
+            try {
+                FXMLLoader loader = viewLoader.load(SESSIONS_FORM_VIEW_FXML);
+                Pane rootLayout = loader.getRoot();
+                sessionsFormController = loader.getController();
+                sessionsFormController.initialize(newSessionCallback);
+
+                /* hide the first form */
+                primaryStage.hide();
+                primaryStage.setTitle("Welcome to chat");
+                primaryStage.setScene(new Scene(rootLayout));
+                primaryStage.setResizable(false);
+                primaryStage.show();
+                /* the form of the next connection */
+                viewLoader.preload(WELCOME_FORM_VIEW_FXML);
+            } catch (IOException e) {
+                logger.error("Failed to initialize the layout:", e);
+                errorDialogCallback.showErrorDialog("Failed to initialize the layout:", e);
+                return;
+            }
+        } else if (connectStage != null) {
+            connectStage.hide();
+        }
+        Tab tab = sessionsFormController.addSession(session.getTitle(), mainLayout);
+        tab.setOnClosed(event -> closeSession(session));
+        tab.selectedProperty().addListener((observable, wasSelected, selected) -> updateVisibility(session));
+        session.setTab(tab);
+        updateVisibility(session);
+    }
+
+    /**
+     * The session is visible while its tab is selected and the window is not minimized.
+     * */
+    private void updateVisibility(Session session) {
+        Tab tab = session.getTab();
+        session.setVisible(tab != null && tab.isSelected() && !primaryStage.isIconified());
+    }
+
+    /**
+     * Disconnects the session and removes its tab, the application is closed with the last session.
+     * */
+    private void closeSession(Session session) {
+        sessionManager.close(session);
+        if (session.getTab() != null) {
+            sessionsFormController.removeSession(session.getTab());
+        }
+        if (sessionManager.isEmpty()) {
+            closeAppCallback.closeApp();
+        }
+    }
+
     /**
      * Shows the first welcome dialogue.
      * */
     private void showWelcomeDialogue() {
         try {
-            FXMLLoader loader = new FXMLLoader(ClientUI.class.getResource(WELCOME_FORM_VIEW_FXML));
-            Pane rootLayout = loader.load();
+            FXMLLoader loader = viewLoader.load(WELCOME_FORM_VIEW_FXML);
+            Pane rootLayout = loader.getRoot();
 
             Scene scene = new Scene(rootLayout);
 
@@ -213,14 +400,27 @@ public class ClientUI extends Application {
             primaryStage.setResizable(false);
             primaryStage.show();
 
-            WelcomeFormController controller = loader.getController();
-            controller.initialize(welcomeCallback, errorDialogCallback);
+            welcomeFormController = loader.getController();
+            welcomeFormController.initialize(welcomeCallback, errorDialogCallback);
         } catch (IOException e) {
             logger.error("Failed to initialize the layout:", e);
             errorDialogCallback.showErrorDialog("Failed to initialize the layout:", e);
         }
     }
 
+    /**
+     * A dialog window together with its controller.
+     * */
+    private static class DialogView {
+        private final Stage stage;
+        private final ErrorDialogController controller;
+
+        private DialogView(Stage stage, ErrorDialogController controller) {
+            this.stage = stage;
+            this.controller = controller;
+        }
+    }
+
     /**
      * Launches the application by invoking the start() method.
      * */
@@ -0,0 +1,111 @@
+package net.ivango.chat.client;
+
+/**
+ * Estimates the offset of the server clock from the local one, the way NTP does with a single server timestamp.
+ * Each GetTime round trip is a sample: the server time is assumed to be taken halfway through the round trip,
+ * so the error of a sample is at most half its round-trip time.
+ * Of the latest samples the one with the shortest round trip is used, the queueing delays only make it worse.
+ * The offset is kept against the monotonic local clock, so the local wall clock adjustments do not affect it.
+ * Thread safe.
+ * */
+public class ClockSync {
+
+    private final long[] offsets, roundTrips;
+    private int next, size;
+
+    /** the sample in use */
+    private volatile Estimate estimate;
+
+    /**
+     * Creates the estimator keeping the given number of the latest samples.
+     * */
+    public ClockSync(int samples) {
+        this.offsets = new long[samples];
+        this.roundTrips = new long[samples];
+    }
+
+    /**
+     * Adds a GetTime round trip: the local times the request was sent and the response received,
+     * as {@link System#nanoTime()}, and the server time in the response as UTC milliseconds.
+     * */
+    public synchronized void addSample(long sentNanos, long serverMillis, long receivedNanos) {
+        long roundTrip = receivedNanos - sentNanos;
+        offsets[next] = serverMillis * 1_000_000 - (sentNanos + roundTrip / 2);
+        roundTrips[next] = roundTrip;
+        next = (next + 1) % offsets.length;
+        size = Math.min(size + 1, offsets.length);
+
+        int best = 0;
+        for (int i = 1; i < size; i++) {
+            if (roundTrips[i] < roundTrips[best]) {
+                best = i;
+            }
+        }
+        estimate = new Estimate(offsets[best], roundTrips[best]);
+    }
+
+    /**
+     * Drops the samples, e.g. once the connection is restored over another route.
+     * The current estimate is used until a new sample arrives.
+     * */
+    public synchronized void reset() {
+        next = 0;
+        size = 0;
+    }
+
+    public boolean isSynchronized() {
+        return estimate != null;
+    }
+
+    /**
+     * Returns the server time at the given local time, as UTC milliseconds.
+     * Before the first sample the local wall clock is used.
+     * */
+    public long toServerTime(long localNanos) {
+        Estimate current = estimate;
+        if (current == null) {
+            return System.currentTimeMillis() - (System.nanoTime() - localNanos) / 1_000_000;
+        }
+        return (localNanos + current.offset) / 1_000_000;
+    }
+
+    /**
+     * Returns the current server time as UTC milliseconds.
+     * */
+    public long serverTimeMillis() {
+        return toServerTime(System.nanoTime());
+    }
+
+    /**
+     * Returns the round-trip time of the sample in use in nanoseconds, half of it bounds the offset error.
+     * */
+    public long getRoundTripNanos() {
+        Estimate current = estimate;
+        return current == null ? 0 : current.roundTrip;
+    }
+
+    /**
+     * Returns the estimated one-way delay from the server in nanoseconds.
+     * */
+    public long getOneWayDelayNanos() {
+        return getRoundTripNanos() / 2;
+    }
+
+    /**
+     * Returns the server clock offset from the local wall clock in milliseconds, positive if the server clock is ahead.
+     * */
+    public long getOffsetMillis() {
+        return serverTimeMillis() - System.currentTimeMillis();
+    }
+
+    private static class Estimate {
+        /** server time in nanoseconds minus the local monotonic time */
+        private final long offset;
+        private final long roundTrip;
+
+        private Estimate(long offset, long roundTrip) {
+            this.offset = offset;
+            this.roundTrip = roundTrip;
+        }
+    }
+}
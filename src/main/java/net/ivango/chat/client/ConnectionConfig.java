@@ -0,0 +1,146 @@
+package net.ivango.chat.client;
+
+/**
+ * Tunable settings of a server connection.
+ * Defaults can be overridden with the "chat.client.*" system properties.
+ * */
+public class ConnectionConfig {
+
+    /** outbound bytes queued before new messages are rejected */
+    private long writeHighWaterMark = 4 * 1024 * 1024;
+    /** microseconds the outbound messages wait to be written together, 0 writes each at once */
+    private long coalesceWindow = 0;
+    /** queued outbound bytes written without waiting for the coalescing window */
+    private long coalesceLimit = 16 * 1024;
+    /** socket options, a buffer size of 0 keeps the system default */
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize = 0;
+    private int receiveBufferSize = 0;
+    private boolean keepAlive = true;
+    /** timeouts of the connection establishment stages, in milliseconds */
+    private long resolveTimeout = 5000;
+    private long connectTimeout = 10000;
+    private long handshakeTimeout = 10000;
+    /** time to wait for the response to a request, in milliseconds */
+    private long requestTimeout = 10000;
+    /** interval of the server clock resync in milliseconds */
+    private long clockSyncInterval = 60000;
+    /** user list poll intervals in milliseconds: after a roster interaction, idle and not visible */
+    private long rosterPollActive = 1000;
+    private long rosterPollIdle = 5000;
+    private long rosterPollHidden = 30000;
+    /** milliseconds after the last roster interaction the polling slows down to the idle interval */
+    private long rosterActivityTimeout = 30000;
+    /** reconnect backoff bounds in milliseconds and the number of attempts before giving up */
+    private long reconnectBaseDelay = 500;
+    private long reconnectMaxDelay = 30000;
+    private int reconnectMaxAttempts = 20;
+    /** messages sent while reconnecting which are kept to be sent after the reconnect */
+    private int replayBufferSize = 1000;
+    /** wire format requested from the servers which support it, "json" keeps the default one */
+    private String codec = "binary";
+    /** "deflate" compresses the messages if the server supports that, "none" does not */
+    private String compression = "none";
+    /** messages shorter than that are not compressed, in bytes */
+    private int compressionThreshold = 256;
+
+    /**
+     * Creates the config with defaults overridden by the system properties.
+     * */
+    public static ConnectionConfig fromSystemProperties() {
+        ConnectionConfig config = new ConnectionConfig();
+        config.setWriteHighWaterMark(Long.getLong("chat.client.writeHighWaterMark", config.getWriteHighWaterMark()));
+        config.setCoalesceWindow(Long.getLong("chat.client.coalesceWindow", config.getCoalesceWindow()));
+        config.setCoalesceLimit(Long.getLong("chat.client.coalesceLimit", config.getCoalesceLimit()));
+        config.setTcpNoDelay(Boolean.parseBoolean(System.getProperty("chat.client.tcpNoDelay", String.valueOf(config.isTcpNoDelay()))));
+        config.setSendBufferSize(Integer.getInteger("chat.client.sendBufferSize", config.getSendBufferSize()));
+        config.setReceiveBufferSize(Integer.getInteger("chat.client.receiveBufferSize", config.getReceiveBufferSize()));
+        config.setKeepAlive(Boolean.parseBoolean(System.getProperty("chat.client.keepAlive", String.valueOf(config.isKeepAlive()))));
+        config.setResolveTimeout(Long.getLong("chat.client.resolveTimeout", config.getResolveTimeout()));
+        config.setConnectTimeout(Long.getLong("chat.client.connectTimeout", config.getConnectTimeout()));
+        config.setHandshakeTimeout(Long.getLong("chat.client.handshakeTimeout", config.getHandshakeTimeout()));
+        config.setRequestTimeout(Long.getLong("chat.client.requestTimeout", config.getRequestTimeout()));
+        config.setClockSyncInterval(Long.getLong("chat.client.clockSyncInterval", config.getClockSyncInterval()));
+        config.setRosterPollActive(Long.getLong("chat.client.rosterPollActive", config.getRosterPollActive()));
+        config.setRosterPollIdle(Long.getLong("chat.client.rosterPollIdle", config.getRosterPollIdle()));
+        config.setRosterPollHidden(Long.getLong("chat.client.rosterPollHidden", config.getRosterPollHidden()));
+        config.setRosterActivityTimeout(Long.getLong("chat.client.rosterActivityTimeout", config.getRosterActivityTimeout()));
+        config.setReconnectBaseDelay(Long.getLong("chat.client.reconnectBaseDelay", config.getReconnectBaseDelay()));
+        config.setReconnectMaxDelay(Long.getLong("chat.client.reconnectMaxDelay", config.getReconnectMaxDelay()));
+        config.setReconnectMaxAttempts(Integer.getInteger("chat.client.reconnectMaxAttempts", config.getReconnectMaxAttempts()));
+        config.setReplayBufferSize(Integer.getInteger("chat.client.replayBufferSize", config.getReplayBufferSize()));
+        config.setCodec(System.getProperty("chat.client.codec", config.getCodec()));
+        config.setCompression(System.getProperty("chat.client.compression", config.getCompression()));
+        config.setCompressionThreshold(Integer.getInteger("chat.client.compressionThreshold", config.getCompressionThreshold()));
+        return config;
+    }
+
+    public long getWriteHighWaterMark() { return writeHighWaterMark; }
+    public void setWriteHighWaterMark(long writeHighWaterMark) { this.writeHighWaterMark = writeHighWaterMark; }
+
+    public long getCoalesceWindow() { return coalesceWindow; }
+    public void setCoalesceWindow(long coalesceWindow) { this.coalesceWindow = coalesceWindow; }
+
+    public long getCoalesceLimit() { return coalesceLimit; }
+    public void setCoalesceLimit(long coalesceLimit) { this.coalesceLimit = coalesceLimit; }
+
+    public boolean isTcpNoDelay() { return tcpNoDelay; }
+    public void setTcpNoDelay(boolean tcpNoDelay) { this.tcpNoDelay = tcpNoDelay; }
+
+    public int getSendBufferSize() { return sendBufferSize; }
+    public void setSendBufferSize(int sendBufferSize) { this.sendBufferSize = sendBufferSize; }
+
+    public int getReceiveBufferSize() { return receiveBufferSize; }
+    public void setReceiveBufferSize(int receiveBufferSize) { this.receiveBufferSize = receiveBufferSize; }
+
+    public boolean isKeepAlive() { return keepAlive; }
+    public void setKeepAlive(boolean keepAlive) { this.keepAlive = keepAlive; }
+
+    public long getResolveTimeout() { return resolveTimeout; }
+    public void setResolveTimeout(long resolveTimeout) { this.resolveTimeout = resolveTimeout; }
+
+    public long getConnectTimeout() { return connectTimeout; }
+    public void setConnectTimeout(long connectTimeout) { this.connectTimeout = connectTimeout; }
+
+    public long getHandshakeTimeout() { return handshakeTimeout; }
+    public void setHandshakeTimeout(long handshakeTimeout) { this.handshakeTimeout = handshakeTimeout; }
+
+    public long getRequestTimeout() { return requestTimeout; }
+    public void setRequestTimeout(long requestTimeout) { this.requestTimeout = requestTimeout; }
+
+    public long getClockSyncInterval() { return clockSyncInterval; }
+    public void setClockSyncInterval(long clockSyncInterval) { this.clockSyncInterval = clockSyncInterval; }
+
+    public long getRosterPollActive() { return rosterPollActive; }
+    public void setRosterPollActive(long rosterPollActive) { this.rosterPollActive = rosterPollActive; }
+
+    public long getRosterPollIdle() { return rosterPollIdle; }
+    public void setRosterPollIdle(long rosterPollIdle) { this.rosterPollIdle = rosterPollIdle; }
+
+    public long getRosterPollHidden() { return rosterPollHidden; }
+    public void setRosterPollHidden(long rosterPollHidden) { this.rosterPollHidden = rosterPollHidden; }
+
+    public long getRosterActivityTimeout() { return rosterActivityTimeout; }
+    public void setRosterActivityTimeout(long rosterActivityTimeout) { this.rosterActivityTimeout = rosterActivityTimeout; }
+
+    public long getReconnectBaseDelay() { return reconnectBaseDelay; }
+    public void setReconnectBaseDelay(long reconnectBaseDelay) { this.reconnectBaseDelay = reconnectBaseDelay; }
+
+    public long getReconnectMaxDelay() { return reconnectMaxDelay; }
+    public void setReconnectMaxDelay(long reconnectMaxDelay) { this.reconnectMaxDelay = reconnectMaxDelay; }
+
+    public int getReconnectMaxAttempts() { return reconnectMaxAttempts; }
+    public void setReconnectMaxAttempts(int reconnectMaxAttempts) { this.reconnectMaxAttempts = reconnectMaxAttempts; }
+
+    public int getReplayBufferSize() { return replayBufferSize; }
+    public void setReplayBufferSize(int replayBufferSize) { this.replayBufferSize = replayBufferSize; }
+
+    public String getCodec() { return codec; }
+    public void setCodec(String codec) { this.codec = codec; }
+
+    public String getCompression() { return compression; }
+    public void setCompression(String compression) { this.compression = compression; }
+
+    public int getCompressionThreshold() { return compressionThreshold; }
+    public void setCompressionThreshold(int compressionThreshold) { this.compressionThreshold = compressionThreshold; }
+}
@@ -0,0 +1,20 @@
+package net.ivango.chat.client;
+
+/**
+ * Stages of the connection establishment, reported to the UI while connecting.
+ * */
+public enum ConnectionStage {
+    RESOLVING("Resolving the server address..."),
+    CONNECTING("Connecting to the server..."),
+    LOGGING_IN("Logging in..."),
+    SYNCING_TIME("Requesting the server time..."),
+    CONNECTED("Connected.");
+
+    private final String description;
+
+    ConnectionStage(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() { return description; }
+}
@@ -0,0 +1,14 @@
+package net.ivango.chat.client;
+
+/**
+ * States of the connection to the server.
+ * */
+public enum ConnectionState {
+    /** the connection is being established for the first time */
+    CONNECTING,
+    CONNECTED,
+    /** the connection was lost, the client is trying to restore it */
+    RECONNECTING,
+    /** the connection is closed for good: by user or after the reconnect attempts were exhausted */
+    CLOSED
+}
@@ -0,0 +1,295 @@
+package net.ivango.chat.client;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import net.ivango.chat.client.metrics.ClientMetrics;
+import net.ivango.chat.client.misc.ConnectionStateCallback;
+import net.ivango.chat.client.misc.FileTransferCallback;
+import net.ivango.chat.client.misc.IncomingMessageCallback;
+import net.ivango.chat.client.misc.ServerTimeMessageCallback;
+import net.ivango.chat.client.misc.UserListUpdateCallback;
+import net.ivango.chat.client.transfer.FileTransfer;
+import net.ivango.chat.common.responses.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the network events to the UI callbacks on the Java FX thread.
+ * Events are collected in lock-free queues and drained once per pulse,
+ * so a burst of messages costs one UI update per frame instead of one FX task per message.
+ * Only the latest server time is kept: older ones are never shown anyway.
+ * User list snapshots and presence changes are applied in their arrival order, a snapshot supersedes
+ * the changes received before it, and the changes of a pulse are netted per user.
+ * Only the latest update of a file transfer is kept as well.
+ * The time the oldest event of a pulse has waited for it is reported as the dispatch lag,
+ * it grows once the UI thread falls behind the network. The estimated time from the server
+ * to the pulse showing a message is reported as its delivery latency.
+ * */
+public class FxEventDispatcher implements NetworkEventSink {
+
+    /** max messages applied per pulse, the rest waits for the next one to keep the frame rate */
+    private static final int MAX_MESSAGES_PER_PULSE = 2000;
+    private static final long NO_SERVER_TIME = Long.MIN_VALUE;
+
+    private final UserListUpdateCallback ulCallback;
+    private final IncomingMessageCallback imCallback;
+    private final ServerTimeMessageCallback stCallback;
+    private final ConnectionStateCallback csCallback;
+    private final FileTransferCallback ftCallback;
+
+    private final ConcurrentLinkedQueue<ReceivedMessage> messages = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<RosterEvent> rosterEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicLong latestServerTime = new AtomicLong(NO_SERVER_TIME);
+    private final ConcurrentLinkedQueue<ConnectionState> stateChanges = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<FileTransfer> fileOffers = new ConcurrentLinkedQueue<>();
+    /** transfers updated since the previous pulse by the transfer id */
+    private final Map<String, FileTransfer> transferUpdates = new ConcurrentHashMap<>();
+    /** arrival time of the oldest event not drained yet, 0 if there is none */
+    private final AtomicLong oldestEventTime = new AtomicLong();
+    private final ClientMetrics metrics;
+    /** set once stopped, the events are dropped then */
+    private volatile boolean stopped;
+
+    /** reused by every pulse, the callback must not keep a reference to it */
+    private final List<ReceivedMessage> messageBatch = new ArrayList<>();
+    /** latest presence change per user address within a pulse, null value means the user has left */
+    private final Map<String, User> presenceChanges = new LinkedHashMap<>();
+    private final Map<String, User> departedUsers = new HashMap<>();
+
+    private final AnimationTimer pulseTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drain();
+        }
+    };
+
+    public FxEventDispatcher(UserListUpdateCallback ulCallback,
+                             IncomingMessageCallback imCallback,
+                             ServerTimeMessageCallback stCallback,
+                             ConnectionStateCallback csCallback,
+                             FileTransferCallback ftCallback,
+                             ClientMetrics metrics) {
+        this.ulCallback = ulCallback;
+        this.imCallback = imCallback;
+        this.stCallback = stCallback;
+        this.csCallback = csCallback;
+        this.ftCallback = ftCallback;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts draining the events on every pulse.
+     * */
+    @Override
+    public void start() {
+        stopped = false;
+        Platform.runLater(pulseTimer::start);
+    }
+
+    /**
+     * Stops draining the events, the pending ones are dropped and the ones coming later are ignored.
+     * */
+    @Override
+    public void stop() {
+        stopped = true;
+        Platform.runLater(pulseTimer::stop);
+        messages.clear();
+        rosterEvents.clear();
+        stateChanges.clear();
+        fileOffers.clear();
+        transferUpdates.clear();
+        latestServerTime.set(NO_SERVER_TIME);
+        oldestEventTime.set(0);
+    }
+
+    @Override
+    public void onMessageReceived(ReceivedMessage message) {
+        if (stopped) {
+            return;
+        }
+        messages.offer(message);
+        onEventQueued();
+    }
+
+    @Override
+    public void onUserListUpdated(List<User> users) {
+        if (stopped) {
+            return;
+        }
+        rosterEvents.offer(new RosterEvent(users, null, false));
+        onEventQueued();
+    }
+
+    @Override
+    public void onUserJoined(User user) {
+        if (stopped) {
+            return;
+        }
+        rosterEvents.offer(new RosterEvent(null, user, true));
+        onEventQueued();
+    }
+
+    @Override
+    public void onUserLeft(User user) {
+        if (stopped) {
+            return;
+        }
+        rosterEvents.offer(new RosterEvent(null, user, false));
+        onEventQueued();
+    }
+
+    @Override
+    public void onServerTimeReceived(long utcTimestamp) {
+        if (stopped) {
+            return;
+        }
+        latestServerTime.set(utcTimestamp);
+        onEventQueued();
+    }
+
+    @Override
+    public void onConnectionStateChanged(ConnectionState state) {
+        if (stopped) {
+            return;
+        }
+        stateChanges.offer(state);
+        onEventQueued();
+    }
+
+    @Override
+    public void onFileOffered(FileTransfer transfer) {
+        if (stopped) {
+            return;
+        }
+        fileOffers.offer(transfer);
+        onEventQueued();
+    }
+
+    @Override
+    public void onFileTransferUpdated(FileTransfer transfer) {
+        if (stopped) {
+            return;
+        }
+        transferUpdates.put(transfer.getId(), transfer);
+        onEventQueued();
+    }
+
+    private void onEventQueued() {
+        if (oldestEventTime.get() == 0) {
+            oldestEventTime.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    /**
+     * Applies the events collected since the previous pulse, runs on the FX thread.
+     * */
+    private void drain() {
+        long queuedSince = oldestEventTime.getAndSet(0);
+        if (queuedSince != 0) {
+            metrics.onDispatched(System.nanoTime() - queuedSince);
+        }
+
+        ConnectionState state;
+        while ((state = stateChanges.poll()) != null) {
+            csCallback.onConnectionStateChanged(state);
+        }
+
+        drainRoster();
+
+        long serverTime = latestServerTime.getAndSet(NO_SERVER_TIME);
+        if (serverTime != NO_SERVER_TIME) {
+            stCallback.onServerTimeReceived(serverTime);
+        }
+
+        FileTransfer offer;
+        while ((offer = fileOffers.poll()) != null) {
+            ftCallback.onFileOffered(offer);
+        }
+        if (!transferUpdates.isEmpty()) {
+            for (FileTransfer transfer : transferUpdates.values()) {
+                /* removed before the callback, so an update coming meanwhile is delivered by the next pulse */
+                transferUpdates.remove(transfer.getId());
+                ftCallback.onFileTransferUpdated(transfer);
+            }
+        }
+
+        ReceivedMessage message;
+        long now = System.nanoTime();
+        while (messageBatch.size() < MAX_MESSAGES_PER_PULSE && (message = messages.poll()) != null) {
+            messageBatch.add(message);
+            metrics.onDelivered(message.getDeliveryLatencyNanos(now));
+        }
+        if (!messageBatch.isEmpty()) {
+            try {
+                imCallback.onMessageReceived(messageBatch);
+            } finally {
+                messageBatch.clear();
+            }
+        }
+        if (queuedSince != 0 && !messages.isEmpty()) {
+            /* the rest waits for the next pulse, it is at most that old */
+            oldestEventTime.compareAndSet(0, queuedSince);
+        }
+    }
+
+    /**
+     * Applies the latest user list snapshot and the presence changes received after it.
+     * */
+    private void drainRoster() {
+        List<User> snapshot = null;
+        RosterEvent event;
+        while ((event = rosterEvents.poll()) != null) {
+            if (event.snapshot != null) {
+                snapshot = event.snapshot;
+                presenceChanges.clear();
+                departedUsers.clear();
+            } else {
+                String address = event.user.getAddress();
+                presenceChanges.put(address, event.joined ? event.user : null);
+                if (!event.joined) {
+                    departedUsers.put(address, event.user);
+                }
+            }
+        }
+
+        if (snapshot != null) {
+            ulCallback.onUserListUpdated(snapshot);
+        }
+        if (!presenceChanges.isEmpty()) {
+            List<User> joined = new ArrayList<>();
+            List<User> left = new ArrayList<>();
+            for (Map.Entry<String, User> change : presenceChanges.entrySet()) {
+                if (change.getValue() != null) {
+                    joined.add(change.getValue());
+                } else {
+                    left.add(departedUsers.get(change.getKey()));
+                }
+            }
+            presenceChanges.clear();
+            departedUsers.clear();
+            ulCallback.onUserListChanged(joined, left);
+        }
+    }
+
+    /**
+     * Either a complete user list or a single presence change.
+     * */
+    private static class RosterEvent {
+        private final List<User> snapshot;
+        private final User user;
+        private final boolean joined;
+
+        private RosterEvent(List<User> snapshot, User user, boolean joined) {
+            this.snapshot = snapshot;
+            this.user = user;
+            this.joined = joined;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.ivango.chat.client;
+
+import net.ivango.chat.client.misc.ConnectionStateCallback;
+import net.ivango.chat.client.misc.IncomingMessageCallback;
+import net.ivango.chat.client.misc.ServerTimeMessageCallback;
+import net.ivango.chat.client.misc.UserListUpdateCallback;
+import net.ivango.chat.client.transfer.FileTransfer;
+import net.ivango.chat.common.responses.User;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Passes the network events to the callbacks right away on the I/O thread, no Java FX is involved.
+ * Used by the clients running without the UI, e.g. the load generator.
+ * The callbacks must be thread safe and must not block. The file offers are ignored, so never answered.
+ * */
+public class HeadlessEventSink implements NetworkEventSink {
+
+    private final UserListUpdateCallback ulCallback;
+    private final IncomingMessageCallback imCallback;
+    private final ServerTimeMessageCallback stCallback;
+    private final ConnectionStateCallback csCallback;
+
+    public HeadlessEventSink(UserListUpdateCallback ulCallback,
+                             IncomingMessageCallback imCallback,
+                             ServerTimeMessageCallback stCallback,
+                             ConnectionStateCallback csCallback) {
+        this.ulCallback = ulCallback;
+        this.imCallback = imCallback;
+        this.stCallback = stCallback;
+        this.csCallback = csCallback;
+    }
+
+    @Override
+    public void start() {}
+
+    @Override
+    public void stop() {}
+
+    @Override
+    public void onMessageReceived(ReceivedMessage message) {
+        imCallback.onMessageReceived(Collections.singletonList(message));
+    }
+
+    @Override
+    public void onUserListUpdated(List<User> users) {
+        ulCallback.onUserListUpdated(users);
+    }
+
+    @Override
+    public void onUserJoined(User user) {
+        ulCallback.onUserListChanged(Collections.singletonList(user), Collections.emptyList());
+    }
+
+    @Override
+    public void onUserLeft(User user) {
+        ulCallback.onUserListChanged(Collections.emptyList(), Collections.singletonList(user));
+    }
+
+    @Override
+    public void onServerTimeReceived(long utcTimestamp) {
+        stCallback.onServerTimeReceived(utcTimestamp);
+    }
+
+    @Override
+    public void onConnectionStateChanged(ConnectionState state) {
+        csCallback.onConnectionStateChanged(state);
+    }
+
+    @Override
+    public void onFileOffered(FileTransfer transfer) {}
+
+    @Override
+    public void onFileTransferUpdated(FileTransfer transfer) {}
+}
@@ -1,237 +1,781 @@
 package net.ivango.chat.client;
 
-import com.google.gson.JsonSyntaxException;
-import javafx.application.Platform;
-import javafx.concurrent.Task;
+import net.ivango.chat.client.io.*;
+import net.ivango.chat.client.log.RateLimitedLogger;
+import net.ivango.chat.client.metrics.ClientMetrics;
+import net.ivango.chat.client.metrics.LatencyHistogram;
+import net.ivango.chat.client.misc.ConnectionProgressCallback;
 import net.ivango.chat.client.misc.ErrorDialogCallback;
-import net.ivango.chat.client.misc.IncomingMessageCallback;
-import net.ivango.chat.client.misc.ServerTimeMessageCallback;
-import net.ivango.chat.client.misc.UserListUpdateCallback;
-import net.ivango.chat.client.ui.MainFormController;
-import net.ivango.chat.common.JSONMapper;
-import net.ivango.chat.common.misc.HandlerMap;
-import net.ivango.chat.common.misc.MessageHandler;
+import net.ivango.chat.client.protocol.*;
+import net.ivango.chat.client.transfer.FileTransferManager;
 import net.ivango.chat.common.requests.*;
 import net.ivango.chat.common.responses.GetTimeResponse;
 import net.ivango.chat.common.responses.GetUsersResponse;
 import net.ivango.chat.common.responses.IncomingMessage;
+import net.ivango.chat.common.responses.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Network controller responsible for:
  * 1. sending/ receiving the messages over the socket channel.
  * 2. notifying the UI upon new events.
+ * The events are passed to a {@link NetworkEventSink}, so the controller runs with or without the UI.
  * */
 public class NetworkController {
 
     /** channel used to communicate with the server */
     private AsynchronousSocketChannel channel;
-    /** the map stores message->handler mappings  */
-    private HandlerMap handlerMap = new HandlerMap();
-    /* mapper used to convert Messages to JSON and back */
-    private JSONMapper jsonMapper = new JSONMapper();
-
-    /** callbacks used to notify the UI  */
-    private UserListUpdateCallback ulCallback;
-    private IncomingMessageCallback imCallback;
-    private ServerTimeMessageCallback stCallback;
+    /** decodes the messages and routes them to their handlers, in order per lane */
+    private InboundPipeline inboundPipeline;
+    /** lanes of the inbound messages: the chat messages, the user list changes and the rest */
+    private static final int MESSAGES_LANE = 0, ROSTER_LANE = 1, CONTROL_LANE = 2, LANES = 3;
+    /** decodes the inbound messages, shared by all the connections */
+    private final Executor decodeExecutor;
+    /** runs the blocking host name lookups, shared by all the connections */
+    private final Executor resolverExecutor;
+    /** wire formats of the current session, both start with JSON and may be switched by the negotiation */
+    private MessageCodec inboundCodec, outboundCodec;
+    /** set by the codec negotiation response, the inbound format switches right after that response */
+    private MessageCodec pendingInboundCodec;
+    /** keeps the outbound format switch and the message encoding in order */
+    private final Object sendLock = new Object();
+    /** direct buffers used to read the input, shared by all the connections */
+    private final BufferPool bufferPool;
+    /** splits the input stream into separate messages */
+    private FrameDecoder frameDecoder;
+    /** traffic, timings and reconnects, shared by all the connections */
+    private final ClientMetrics metrics;
+
+    /** receives the network events, e.g. delivers them to the UI in batches */
+    private NetworkEventSink eventDispatcher;
     private ErrorDialogCallback errorDialogCallback;
 
-    private Lock writeLock = new ReentrantLock();
+    /** connection settings */
+    private ConnectionConfig config;
+    /** group the channels are opened in, shared by all the connections */
+    private final AsynchronousChannelGroup channelGroup;
+    /** queue of the outbound messages */
+    private MessageWriter messageWriter;
+    /** the files sent to and received from the other users */
+    private final FileTransferManager fileTransfers;
+
+    /** runs the user list polling, the timeouts and the reconnects, shared by all the connections */
+    private final ScheduledExecutorService scheduler;
+    /** polls the user list as often as the activity of the user requires */
+    private final RosterPoller rosterPoller;
+    /** content hash of the latest user list passed to the event sink, an unchanged poll result is dropped */
+    private volatile long rosterHash = NO_ROSTER;
+    private static final long NO_ROSTER = Long.MIN_VALUE;
+    /** requests waiting for their responses */
+    private final PendingRequests pendingRequests;
+    /** GetTime round trips per sync, the one with the shortest round trip is used */
+    private static final int CLOCK_SYNC_SAMPLES = 4;
+    /** estimate of the server clock, resynced periodically */
+    private final ClockSync clock = new ClockSync(2 * CLOCK_SYNC_SAMPLES);
+    private ScheduledFuture<?> clockResync;
+    /** local time the read carrying the latest GetTime response has completed at */
+    private volatile long timeResponseNanos;
+    /** set once the server of the current connection advertises the presence events, the user list polling stops then */
+    private volatile boolean presenceSupported;
 
-    /** thread pool user to perform the background polling requests */
-    private ExecutorService threadPool = Executors.newSingleThreadScheduledExecutor();
-    private static final int SLEEP_INTERVAL = 5;
-    private static final String MESSAGE_TEMPLATE = "NetworkController background worker thread: %s";
+    /** connection state, transitions are guarded by this */
+    private volatile ConnectionState state = ConnectionState.CONNECTING;
+    /** the login data, used to restore the connection */
+    private String userName, hostname;
+    private int port;
+    private Backoff backoff;
+    /** messages sent while reconnecting, guarded by this */
+    private final Deque<PendingMessage> replayBuffer = new ArrayDeque<>();
 
     private static Logger logger = LoggerFactory.getLogger(NetworkController.class);
+    /** the failures repeating with every message or reconnect attempt, shared by all the connections */
+    private static RateLimitedLogger hotPathLogger = new RateLimitedLogger(NetworkController.class);
+
+    public NetworkController(IoRuntime ioRuntime) {
+        this(ConnectionConfig.fromSystemProperties(), ioRuntime);
+    }
 
     /**
-     * Registers the incoming message handlers and starts the background thread.
+     * Creates a controller running on the given runtime, so many connections share the same threads.
+     * */
+    public NetworkController(ConnectionConfig config, IoRuntime ioRuntime) {
+        this.config = config;
+        this.channelGroup = ioRuntime.getChannelGroup();
+        this.scheduler = ioRuntime.getScheduler();
+        this.bufferPool = ioRuntime.getBufferPool();
+        this.decodeExecutor = ioRuntime.getDecodeExecutor();
+        this.resolverExecutor = ioRuntime.getResolverExecutor();
+        this.metrics = ioRuntime.getMetrics();
+        this.pendingRequests = new PendingRequests(scheduler, config.getRequestTimeout());
+        this.backoff = new Backoff(config.getReconnectBaseDelay(), config.getReconnectMaxDelay());
+        this.fileTransfers = new FileTransferManager(channelGroup, ioRuntime.getFileExecutor(),
+                FileTransferManager.defaultDownloadDirectory());
+        this.rosterPoller = new RosterPoller(scheduler, config, this::pollUserList);
+    }
+
+    /**
+     * Registers the incoming message handlers and starts the clock resync, the user list polling starts with every session.
+     * The user list snapshots and the presence events share a lane, as the events apply to the latest snapshot.
      * */
     private void registerHandlers(){
-        /* registering the read handler */
-        ByteBuffer inputBuffer = ByteBuffer.allocate(2048);
-        channel.read(inputBuffer, null, new Readhandler(channel, inputBuffer));
-
-        handlerMap.put(GetTimeResponse.class, (getTimeResponse, address) -> {
-            Task<Void> task = new Task<Void>() {
-                protected Void call() throws Exception {
-                    stCallback.onServerTimeReceived( getTimeResponse.getUtcServerTime() );
-                    return null;
-                }
-            };
-            Platform.runLater(task);
+        inboundPipeline = new InboundPipeline(decodeExecutor, LANES, metrics, errorDialogCallback);
+
+        inboundPipeline.route(GetTimeResponse.class, CONTROL_LANE, (getTimeResponse, receivedNanos) -> {
+            timeResponseNanos = receivedNanos;
+            pendingRequests.complete(GetTimeResponse.class, getTimeResponse);
+            eventDispatcher.onServerTimeReceived( getTimeResponse.getUtcServerTime() );
         });
 
-        handlerMap.put(GetUsersResponse.class, (message, address) -> {
-            logger.debug("GetUsers response received: " + message.getUsers().toString());
-            Task<Void> task = new Task<Void>() {
-                protected Void call() throws Exception {
-                    ulCallback.onUserListUpdated( message.getUsers() );
-                    return null;
-                }
-            };
-            Platform.runLater(task);
+        inboundPipeline.route(GetUsersResponse.class, ROSTER_LANE, (message, receivedNanos) -> {
+            pendingRequests.complete(GetUsersResponse.class, message);
+            long hash = RosterPoller.contentHash(message.getUsers());
+            if (hash == rosterHash) {
+                /* the UI is up to date */
+                return;
+            }
+            rosterHash = hash;
+            logger.debug("GetUsers response received: {}", message.getUsers());
+            eventDispatcher.onUserListUpdated( message.getUsers() );
         });
 
-        handlerMap.put(IncomingMessage.class, (message, address) -> {
-            logger.debug("Message from %s received: %s.\n", message.getFrom(), message.getMessage());
-            Task<Void> task = new Task<Void>() {
-                protected Void call() throws Exception {
-                    imCallback.onMessageReceived(message.getSenderName(), message.getMessage(), message.isBroadcast());
-                    return null;
-                }
-            };
-            Platform.runLater(task);
+        inboundPipeline.route(IncomingMessage.class, MESSAGES_LANE, (message, receivedNanos) -> {
+            logger.debug("Message from {} received: {}", message.getFrom(), message.getMessage());
+            eventDispatcher.onMessageReceived(new ReceivedMessage(message, receivedNanos, clock));
         });
 
-        Runnable updateUserListTask = () -> {
-            try {
-                while (!Thread.interrupted()) {
-                    logger.debug(String.format(MESSAGE_TEMPLATE, "thread awakened."));
-                    /* fetch users */
-                    sendJSON(new GetUsersRequest());
-
-                    /* wait for a while */
-                    logger.debug(String.format(MESSAGE_TEMPLATE, "thread goes to sleep."));
-                    TimeUnit.SECONDS.sleep(SLEEP_INTERVAL);
+        inboundPipeline.route(ServerCapabilities.class, CONTROL_LANE, (message, receivedNanos) -> {
+            logger.info("Server capabilities received: {}", message.getFeatures());
+            String codec = selectCodec(message);
+            if (codec != null) {
+                switchOutboundCodec(codec);
+            }
+            if (message.supports(ServerCapabilities.PRESENCE)) {
+                presenceSupported = true;
+                rosterPoller.stop();
+                logger.info("User list polling stopped, presence events are pushed by the server.");
+                /* the snapshot the deltas are applied to */
+                getUsers();
+            }
+            fileTransfers.setSupported(message.supports(ServerCapabilities.FILE_TRANSFER));
+        });
+
+        /* the frames following the response are in the new format, so the reader handles it before reading on */
+        inboundPipeline.routeInline(CodecNegotiationResponse.class, (message, receivedNanos) -> {
+            MessageCodec codec = Codecs.create(message.getCodec());
+            if (codec == null) {
+                logger.error("Server has switched to an unknown codec: {}", message.getCodec());
+                errorDialogCallback.showErrorDialog("Server has switched to an unknown wire format: " + message.getCodec(), null);
+                return;
+            }
+            logger.info("Server messages are switched to the {} codec.", codec.getName());
+            pendingInboundCodec = codec;
+        });
+
+        /* the roster shown differs from the latest snapshot then */
+        inboundPipeline.route(UserJoinedEvent.class, ROSTER_LANE, (message, receivedNanos) -> {
+            rosterHash = NO_ROSTER;
+            eventDispatcher.onUserJoined(message.getUser());
+        });
+        inboundPipeline.route(UserLeftEvent.class, ROSTER_LANE, (message, receivedNanos) -> {
+            rosterHash = NO_ROSTER;
+            eventDispatcher.onUserLeft(message.getUser());
+        });
+
+        inboundPipeline.route(FileOffer.class, CONTROL_LANE, (message, receivedNanos) -> fileTransfers.onOffered(message));
+        inboundPipeline.route(FileOfferResponse.class, CONTROL_LANE, (message, receivedNanos) -> fileTransfers.onAnswered(message));
+
+        /* the clocks drift apart, the route may change as well */
+        clockResync = scheduler.scheduleAtFixedRate(this::resyncClock,
+                config.getClockSyncInterval(), config.getClockSyncInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called once the user uses the user list, e.g. opens the receiver list: the polling speeds up for a while.
+     * */
+    public void onRosterInteraction() {
+        rosterPoller.onInteraction();
+    }
+
+    /**
+     * Called once the user list is shown or hidden, e.g. the window is minimized: the hidden one is polled rarely.
+     * */
+    public void setRosterVisible(boolean visible) {
+        rosterPoller.setVisible(visible);
+    }
+
+    /**
+     * Requests the user list, the reconnect fetches it anyway.
+     * */
+    private void pollUserList() {
+        if (state == ConnectionState.CONNECTED && !presenceSupported) {
+            logger.debug("Polling the user list.");
+            getUsers();
+        }
+    }
+
+    private void resyncClock() {
+        if (state == ConnectionState.CONNECTED) {
+            syncClock(CLOCK_SYNC_SAMPLES);
+        }
+    }
+
+    /**
+     * Takes the given number of clock samples one after another, so they do not queue behind each other.
+     * */
+    private CompletableFuture<Long> syncClock(int samples) {
+        CompletableFuture<Long> result = getServerTime();
+        for (int i = 1; i < samples; i++) {
+            result = result.thenCompose(ignored -> getServerTime());
+        }
+        return result;
+    }
+
+    /**
+     * Starts a session over the freshly connected channel: creates the writer and starts reading.
+     * */
+    private void startSession() {
+        /* the responses to the previous connection never come */
+        pendingRequests.failAll(new ClosedChannelException());
+        /* the user list may have changed meanwhile, the first one is shown anyway */
+        rosterHash = NO_ROSTER;
+        /* polls the user list unless the server pushes the presence events, another server may not */
+        presenceSupported = false;
+        rosterPoller.start();
+        synchronized (sendLock) {
+            closeCodec(outboundCodec);
+            outboundCodec = new JsonCodec();
+            messageWriter = new MessageWriter(channel, config.getWriteHighWaterMark(), metrics,
+                    scheduler, config.getCoalesceWindow(), config.getCoalesceLimit());
+        }
+        /* the reader of the previous connection has stopped */
+        closeCodec(inboundCodec);
+        closeCodec(pendingInboundCodec);
+        inboundCodec = new JsonCodec();
+        pendingInboundCodec = null;
+        inboundPipeline.reset();
+        if (frameDecoder != null) {
+            frameDecoder.release();
+        }
+        frameDecoder = inboundCodec.newFrameDecoder(bufferPool);
+        channel.read(frameDecoder.getReadBuffer(), null, new Readhandler(channel, frameDecoder));
+    }
+
+    /**
+     * Returns the configured codec, compressed if so configured, the server supports. Null keeps JSON.
+     * */
+    private String selectCodec(ServerCapabilities capabilities) {
+        String codec = config.getCodec();
+        if ("deflate".equals(config.getCompression())) {
+            for (String compressed : new String[] {codec + DeflateCodec.SUFFIX, JsonCodec.NAME + DeflateCodec.SUFFIX}) {
+                if (capabilities.supports(Codecs.CAPABILITY_PREFIX + compressed)) {
+                    return compressed;
                 }
-            } catch (InterruptedException ie) {
-                // That's OK: somebody has stopped the app.
-                logger.info(String.format(MESSAGE_TEMPLATE, "thread interrupted."));
             }
-            logger.info(String.format(MESSAGE_TEMPLATE, "thread stopped."));
-        };
+        }
+        if (!JsonCodec.NAME.equals(codec) && capabilities.supports(Codecs.CAPABILITY_PREFIX + codec)) {
+            return codec;
+        }
+        return null;
+    }
 
-        threadPool.execute(updateUserListTask);
+    /**
+     * Requests the server to accept the messages in another format, the following messages are encoded with it.
+     * */
+    private void switchOutboundCodec(String codecName) {
+        synchronized (sendLock) {
+            send(new CodecNegotiationRequest(codecName));
+            closeCodec(outboundCodec);
+            outboundCodec = Codecs.create(codecName, config.getCompressionThreshold());
+        }
+        logger.info("Client messages are switched to the {} codec.", codecName);
     }
 
     /**
      * Handler to read the input messages.
+     * A single read may carry several messages or a part of one, so the input is split by the frame decoder.
+     * The frames are passed to the inbound pipeline, so the next read never waits for the decoding.
      * */
     private class Readhandler implements CompletionHandler<Integer, Void> {
         private AsynchronousSocketChannel socketChannel;
-        private ByteBuffer inputBuffer;
+        private FrameDecoder frameDecoder;
+        /** local time the current read has completed at */
+        private long readNanos;
 
-        public Readhandler(AsynchronousSocketChannel socketChannel, ByteBuffer inputBuffer) {
+        public Readhandler(AsynchronousSocketChannel socketChannel, FrameDecoder frameDecoder) {
             this.socketChannel = socketChannel;
-            this.inputBuffer = inputBuffer;
+            this.frameDecoder = frameDecoder;
         }
 
         @Override
         public void completed(Integer bytesRead, Void attachment) {
             if (bytesRead == -1) {
-                errorDialogCallback.showErrorDialog("Server disconnected. The program will close.\n", null);
+                onConnectionLost(socketChannel, null);
                 return;
             }
-
-            byte[] buffer = new byte[bytesRead];
-            // Rewind the input buffer to read from the beginning
-            inputBuffer.rewind();
-            inputBuffer.get(buffer);
-            String json = new String(buffer);
+            readNanos = System.nanoTime();
+            metrics.onBytesRead(bytesRead);
 
             try {
-                /* map json to an object */
-                Message message = (Message) jsonMapper.fromJson(json);
-                /* route the message to the corresponding handler */
-                MessageHandler handler = handlerMap.get(message.getClass());
-                handler.onMessageReceived(message, null);
-
-            } catch (JsonSyntaxException ie) {
-                logger.error("Failed to parse the input JSON", ie);
-                errorDialogCallback.showErrorDialog("Failed to parse the input JSON", ie);
-            } catch (ClassNotFoundException e) {
-                logger.error("Failed to map the input JSON, class not found", e);
-                errorDialogCallback.showErrorDialog("Failed to map the input JSON, class not found", e);
+                /* route every complete message, the incomplete tail stays in the decoder */
+                while (!frameDecoder.decode(this::onFrame)) {
+                    /* the wire format has changed, the rest of the input belongs to the new format */
+                    switchInboundCodec();
+                }
+            } catch (IOException e) {
+                hotPathLogger.error("decode", "Failed to decode the input stream", e);
+                errorDialogCallback.showErrorDialog("Failed to decode the input stream", e);
+                return;
             }
-            inputBuffer.clear();
-            socketChannel.read(inputBuffer, null, this);
+            socketChannel.read(frameDecoder.getReadBuffer(), null, this);
+        }
+
+        /**
+         * Passes a single frame to the inbound pipeline.
+         * Returns false once the inbound wire format is about to change.
+         * */
+        private boolean onFrame(ByteBuffer frame) {
+            inboundPipeline.onFrame(frame, inboundCodec, readNanos);
+            return pendingInboundCodec == null;
+        }
+
+        /**
+         * Passes the undecoded input to the frame decoder of the negotiated codec.
+         * */
+        private void switchInboundCodec() throws IOException {
+            FrameDecoder next = pendingInboundCodec.newFrameDecoder(bufferPool);
+            frameDecoder.transferTo(next);
+            frameDecoder.release();
+            frameDecoder = next;
+            NetworkController.this.frameDecoder = next;
+            inboundCodec.close();
+            inboundCodec = pendingInboundCodec;
+            pendingInboundCodec = null;
         }
 
         @Override
         public void failed(Throwable exc, Void attachment) {
-            logger.warn("Failed to read the input message.");
+            if (state == ConnectionState.CLOSED) {
+                /* the channel is closed by the application, the reader is done with the codecs */
+                closeCodec(inboundCodec);
+                closeCodec(pendingInboundCodec);
+                return;
+            }
+            hotPathLogger.warn("read", "Failed to read the input message", exc);
+            onConnectionLost(socketChannel, exc);
         }
     }
 
     /**
-     * Maps the message object to JSON and sends it over the wire to the server.
+     * Encodes the message with the current codec and queues it for sending to the server.
+     * Never blocks: the returned future completes once the message is written to the socket.
      * */
-    private void sendJSON(Message message) {
-        String json = jsonMapper.toJSON(message);
-
-        try {
-            writeLock.lock();
-            ByteBuffer buffer = ByteBuffer.wrap(json.getBytes());
-            channel.write(buffer).get();
-            buffer.clear();
-        } catch (InterruptedException e) {
-            logger.info("Message sending interrupted.");
-        } catch (ExecutionException e) {
-            logger.warn("Other error during the message sending", e);
-        } finally {
-            writeLock.unlock();
+    private CompletableFuture<Void> send(Message message) {
+        synchronized (sendLock) {
+            metrics.onMessageSent(message.getClass());
+            return messageWriter.write(outboundCodec.encode(message));
         }
     }
 
     /**
      * Sends the message to the server.
      * */
-    public void sendMessage(String receiver, String message, boolean broadcast) {
-        sendJSON(new SendMessageRequest(receiver, message, broadcast));
+    public CompletableFuture<Void> sendMessage(String receiver, String message, boolean broadcast) {
+        SendMessageRequest request = new SendMessageRequest(receiver, message, broadcast);
+        CompletableFuture<Void> result;
+        synchronized (this) {
+            if (state == ConnectionState.RECONNECTING) {
+                /* kept until the connection is restored */
+                result = new CompletableFuture<>();
+                if (replayBuffer.size() < config.getReplayBufferSize()) {
+                    replayBuffer.add(new PendingMessage(request, result));
+                } else {
+                    result.completeExceptionally(new WriteQueueFullException("Too many messages sent while reconnecting"));
+                }
+            } else {
+                result = send(request);
+            }
+        }
+        result.whenComplete((ignored, e) -> {
+            if (e != null) {
+                hotPathLogger.warn("send", "Failed to send the message", e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Requests the users online, several requests may be in flight at once.
+     * The user list is delivered to the event sink as well.
+     * */
+    public CompletableFuture<List<User>> getUsers() {
+        return request(new GetUsersRequest(), GetUsersResponse.class).thenApply(GetUsersResponse::getUsers);
     }
 
     /**
-     * Closes the socket channel and terminate the thread pool.
+     * Requests the server time as UTC milliseconds, the round trip is added to the clock estimate.
+     * */
+    public CompletableFuture<Long> getServerTime() {
+        long sent = System.nanoTime();
+        return request(new GetTimeRequest(), GetTimeResponse.class).thenApply(response -> {
+            /* completed by the GetTime handler, which has noted the read time of the response */
+            clock.addSample(sent, response.getUtcServerTime(), timeResponseNanos);
+            return response.getUtcServerTime();
+        });
+    }
+
+    /**
+     * Returns the estimate of the server clock.
+     * */
+    public ClockSync getClock() {
+        return clock;
+    }
+
+    /**
+     * Returns the round-trip times of the requests by the request type.
+     * */
+    public Map<String, LatencyHistogram> getRequestLatencies() {
+        return pendingRequests.getLatencies();
+    }
+
+    /**
+     * Returns the file transfers of the connection.
+     * */
+    public FileTransferManager getFileTransfers() {
+        return fileTransfers;
+    }
+
+    /**
+     * Returns the metrics of the runtime the controller runs on.
+     * */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sends the request, the future is completed with the response or fails after the request timeout.
+     * The request is registered in the order it is written, the responses are matched in that order.
+     * */
+    private <R extends Message> CompletableFuture<R> request(Message request, Class<R> responseType) {
+        synchronized (sendLock) {
+            CompletableFuture<R> response = pendingRequests.register(request.getClass().getSimpleName(), responseType);
+            send(request).whenComplete((ignored, e) -> {
+                if (e != null) {
+                    pendingRequests.cancel(responseType, response, e);
+                }
+            });
+            return response;
+        }
+    }
+
+    /**
+     * Closes the socket channel and stops the periodic tasks, the shared runtime keeps running.
      * */
     public void onApplicationClose() {
+        synchronized (this) {
+            state = ConnectionState.CLOSED;
+        }
         try {
-            threadPool.shutdownNow();
+            if (clockResync != null) {
+                rosterPoller.stop();
+                clockResync.cancel(false);
+            }
+            pendingRequests.failAll(new ClosedChannelException());
+            if (eventDispatcher != null) {
+                eventDispatcher.stop();
+            }
+            if (messageWriter != null) {
+                messageWriter.close();
+            }
+            synchronized (sendLock) {
+                /* a late message is still encoded and failed by the closed writer, JSON holds no native memory */
+                closeCodec(outboundCodec);
+                outboundCodec = new JsonCodec();
+            }
+            if (inboundPipeline != null) {
+                inboundPipeline.reset();
+            }
             if (channel != null && channel.isOpen()) {
                 channel.close();
             }
+            if (frameDecoder != null) {
+                frameDecoder.release();
+            }
         } catch (IOException e) {
             logger.error("Error during the app exit", e);
         }
     }
 
     /**
-     * Initializes the connection with server.
-     * Inits the login and get time requests.
+     * Establishes the connection with server asynchronously, never blocks the caller:
+     * resolves the address, connects, performs the login and waits for the server time.
+     * Every stage is reported to the progress callback and limited by the timeout from the config.
      * */
-    public void initConnection (String userName,
-                                String hostname,
-                                int port,
-                                MainFormController controller,
-                                ErrorDialogCallback errorDialogCallback) throws IOException, ExecutionException, InterruptedException {
-        channel = AsynchronousSocketChannel.open();
-        Future f = channel.connect(new InetSocketAddress(hostname, port));
-        f.get();
-
-        logger.debug("Client has started: " + channel.isOpen());
-        this.ulCallback = controller;
-        this.imCallback = controller;
-        this.stCallback = controller;
+    public CompletableFuture<Void> connect(String userName,
+                                           String hostname,
+                                           int port,
+                                           NetworkEventSink eventSink,
+                                           ErrorDialogCallback errorDialogCallback,
+                                           ConnectionProgressCallback progressCallback) {
+        this.eventDispatcher = eventSink;
         this.errorDialogCallback = errorDialogCallback;
-        registerHandlers();
+        this.userName = userName;
+        this.hostname = hostname;
+        this.port = port;
+        fileTransfers.start(eventSink, this::send);
+
+        progressCallback.onConnectionProgress(ConnectionStage.RESOLVING);
+        CompletableFuture<Void> result = withTimeout(
+                CompletableFuture.supplyAsync(() -> resolve(hostname, port), resolverExecutor),
+                config.getResolveTimeout(), "Resolving " + hostname)
+            .thenCompose(address -> {
+                progressCallback.onConnectionProgress(ConnectionStage.CONNECTING);
+                return withTimeout(openChannel(address), config.getConnectTimeout(), "Connecting to " + address);
+            })
+            .thenCompose(ignored -> {
+                logger.debug("Client has started: {}", channel.isOpen());
+                eventDispatcher.start();
+                registerHandlers();
+                startSession();
+
+                /* perform the login */
+                progressCallback.onConnectionProgress(ConnectionStage.LOGGING_IN);
+                return withTimeout(send(new LoginRequest(userName)), config.getHandshakeTimeout(), "Login");
+            })
+            .thenCompose(ignored -> {
+                /* request the server time, the rest of the clock samples are taken in the background */
+                progressCallback.onConnectionProgress(ConnectionStage.SYNCING_TIME);
+                CompletableFuture<Long> serverTime = getServerTime();
+                serverTime.thenRun(() -> syncClock(CLOCK_SYNC_SAMPLES - 1));
+                return withTimeout(serverTime, config.getHandshakeTimeout(), "Server time request");
+            })
+            .thenAccept(ignored -> {
+                synchronized (this) {
+                    if (state == ConnectionState.CONNECTING) {
+                        state = ConnectionState.CONNECTED;
+                    }
+                }
+                /* the polling skips the requests until connected, so the first user list is fetched here */
+                getUsers();
+                progressCallback.onConnectionProgress(ConnectionStage.CONNECTED);
+            });
+
+        result.whenComplete((ignored, e) -> {
+            if (e != null) {
+                if (clockResync != null) {
+                    rosterPoller.stop();
+                    clockResync.cancel(false);
+                }
+                closeChannel();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Called when the read side detects the connection loss, starts reconnecting.
+     * Losses reported by the channels of the previous sessions are ignored.
+     * */
+    private void onConnectionLost(AsynchronousSocketChannel lostChannel, Throwable cause) {
+        synchronized (this) {
+            if (lostChannel != channel || state != ConnectionState.CONNECTED) {
+                return;
+            }
+            state = ConnectionState.RECONNECTING;
+        }
+        logger.warn("Connection to the server lost, reconnecting.", cause);
+        metrics.onConnectionLost();
+        messageWriter.close();
+        pendingRequests.failAll(new ClosedChannelException());
+        closeChannel();
+        eventDispatcher.onConnectionStateChanged(ConnectionState.RECONNECTING);
+        backoff.reset();
+        scheduleReconnect();
+    }
+
+    /**
+     * Schedules the next reconnect attempt, gives up once the attempts are exhausted.
+     * */
+    private void scheduleReconnect() {
+        if (backoff.getAttempts() >= config.getReconnectMaxAttempts()) {
+            synchronized (this) {
+                if (state != ConnectionState.RECONNECTING) {
+                    return;
+                }
+                state = ConnectionState.CLOSED;
+                failReplayBuffer();
+            }
+            eventDispatcher.onConnectionStateChanged(ConnectionState.CLOSED);
+            errorDialogCallback.showErrorDialog("Server disconnected. The session will close.\n", null);
+            return;
+        }
+        long delay = backoff.nextDelay();
+        logger.info("Reconnect attempt {} in {} ms.", backoff.getAttempts(), delay);
+        scheduler.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Performs a single reconnect attempt: connects and logs in again,
+     * then replays the messages sent meanwhile.
+     * */
+    private void reconnect() {
+        if (state != ConnectionState.RECONNECTING) {
+            return;
+        }
+        metrics.onReconnectAttempt();
+        withTimeout(CompletableFuture.supplyAsync(() -> resolve(hostname, port), resolverExecutor),
+                config.getResolveTimeout(), "Resolving " + hostname)
+            .thenCompose(address -> withTimeout(openChannel(address), config.getConnectTimeout(), "Connecting to " + address))
+            .thenCompose(ignored -> {
+                startSession();
+                return withTimeout(send(new LoginRequest(userName)), config.getHandshakeTimeout(), "Login");
+            })
+            .whenComplete((ignored, e) -> {
+                if (e != null) {
+                    hotPathLogger.warn("reconnect", "Reconnect attempt {} failed", backoff.getAttempts(), e);
+                    closeChannel();
+                    scheduleReconnect();
+                } else {
+                    onReconnected();
+                }
+            });
+    }
+
+    /**
+     * Restores the session state and sends the messages queued while reconnecting.
+     * */
+    private void onReconnected() {
+        synchronized (this) {
+            if (state != ConnectionState.RECONNECTING) {
+                return;
+            }
+            state = ConnectionState.CONNECTED;
+            /* the new route may have another delay */
+            clock.reset();
+            syncClock(CLOCK_SYNC_SAMPLES);
+            getUsers();
+            PendingMessage pending;
+            while ((pending = replayBuffer.poll()) != null) {
+                CompletableFuture<Void> future = pending.future;
+                send(pending.message).whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(null);
+                    }
+                });
+            }
+        }
+        logger.info("Connection to the server restored after {} attempt(s).", backoff.getAttempts());
+        metrics.onReconnected();
+        backoff.reset();
+        eventDispatcher.onConnectionStateChanged(ConnectionState.CONNECTED);
+    }
+
+    private void failReplayBuffer() {
+        PendingMessage pending;
+        while ((pending = replayBuffer.poll()) != null) {
+            pending.future.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    /**
+     * Resolves the server address, runs in a background thread as the DNS lookup blocks.
+     * */
+    private static InetSocketAddress resolve(String hostname, int port) {
+        InetSocketAddress address = new InetSocketAddress(hostname, port);
+        if (address.isUnresolved()) {
+            throw new CompletionException(new UnknownHostException(hostname));
+        }
+        return address;
+    }
+
+    /**
+     * Opens the channel with the configured socket options and starts connecting it to the server.
+     * */
+    private CompletableFuture<Void> openChannel(InetSocketAddress address) {
+        CompletableFuture<Void> connected = new CompletableFuture<>();
+        fileTransfers.setServer(address);
+        try {
+            channel = AsynchronousSocketChannel.open(channelGroup);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, config.isKeepAlive());
+            /* set before connecting, so the TCP window scale is negotiated for them */
+            if (config.getSendBufferSize() > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBufferSize());
+            }
+            if (config.getReceiveBufferSize() > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+            }
+            channel.connect(address, null, new CompletionHandler<Void, Void>() {
+                @Override
+                public void completed(Void result, Void attachment) {
+                    connected.complete(null);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    connected.completeExceptionally(exc);
+                }
+            });
+        } catch (IOException e) {
+            connected.completeExceptionally(e);
+        }
+        return connected;
+    }
+
+    /**
+     * Fails the future with a TimeoutException unless it completes within the timeout.
+     * */
+    private <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeoutMillis, String operation) {
+        ScheduledFuture<?> timeout = scheduler.schedule(
+                () -> future.completeExceptionally(new TimeoutException(operation + " timed out")),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((ignored, e) -> timeout.cancel(false));
+        return future;
+    }
 
-        /* perform the login */
-        sendJSON(new LoginRequest(userName));
+    private static void closeCodec(MessageCodec codec) {
+        if (codec != null) {
+            codec.close();
+        }
+    }
 
-        /* request the server time */
-        sendJSON(new GetTimeRequest());
+    private void closeChannel() {
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to close the channel", e);
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * A message waiting for the connection to be restored.
+     * */
+    private static class PendingMessage {
+        private final Message message;
+        private final CompletableFuture<Void> future;
+
+        private PendingMessage(Message message, CompletableFuture<Void> future) {
+            this.message = message;
+            this.future = future;
+        }
+    }
+}
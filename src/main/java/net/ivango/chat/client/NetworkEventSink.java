@@ -0,0 +1,42 @@
+package net.ivango.chat.client;
+
+import net.ivango.chat.client.transfer.FileTransfer;
+import net.ivango.chat.common.responses.User;
+
+import java.util.List;
+
+/**
+ * Receives the network events of a connection, called on the I/O threads.
+ * The UI uses the {@link FxEventDispatcher}, the headless clients use the {@link HeadlessEventSink}.
+ * */
+public interface NetworkEventSink {
+
+    /**
+     * Called once the connection is established, before the first event.
+     * */
+    void start();
+
+    /**
+     * Called when the connection is closed, no events follow.
+     * */
+    void stop();
+
+    void onMessageReceived(ReceivedMessage message);
+
+    void onUserListUpdated(List<User> users);
+
+    void onUserJoined(User user);
+
+    void onUserLeft(User user);
+
+    void onServerTimeReceived(long utcTimestamp);
+
+    void onConnectionStateChanged(ConnectionState state);
+
+    void onFileOffered(FileTransfer transfer);
+
+    /**
+     * Called with the progress of a transfer, at most every 100 ms per transfer, and once finished.
+     * */
+    void onFileTransferUpdated(FileTransfer transfer);
+}
@@ -0,0 +1,173 @@
+package net.ivango.chat.client;
+
+import net.ivango.chat.client.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests waiting for their responses.
+ * The protocol carries no correlation ids and the server answers the requests of a connection in order,
+ * so a response completes the oldest pending request expecting that response type.
+ * Every request gets a client-side id used in the logs, the round-trip time is recorded per request type.
+ * A timed out request stays in the queue until its late response arrives, so the later requests stay matched.
+ * One expired long ago is dropped but leaves a tombstone, which its late response consumes instead of a live request.
+ * */
+class PendingRequests {
+
+    private static Logger logger = LoggerFactory.getLogger(PendingRequests.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final long timeoutMillis;
+    private final AtomicLong nextId = new AtomicLong();
+    /** pending requests by the expected response type, guarded by this */
+    private final Map<Class<?>, Deque<Request<?>>> pending = new HashMap<>();
+    /** dropped requests still expecting their responses by the response type, guarded by this */
+    private final Map<Class<?>, Integer> tombstones = new HashMap<>();
+    /** round-trip times by the request type */
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    PendingRequests(ScheduledExecutorService scheduler, long timeoutMillis) {
+        this.scheduler = scheduler;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Registers a request about to be sent, the future is completed with its response.
+     * Must be called in the order the requests are written to the connection.
+     * */
+    <R> CompletableFuture<R> register(String requestType, Class<R> responseType) {
+        Request<R> request = new Request<>(nextId.incrementAndGet(), requestType);
+        request.timeout = scheduler.schedule(() -> {
+            request.expired = true;
+            request.future.completeExceptionally(new TimeoutException(
+                    requestType + " #" + request.id + " timed out after " + timeoutMillis + " ms"));
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            Deque<Request<?>> queue = pending.computeIfAbsent(responseType, type -> new ArrayDeque<>());
+            purgeExpired(responseType, queue);
+            queue.add(request);
+        }
+        return request.future;
+    }
+
+    /**
+     * Removes the request which was not written, e.g. rejected by the full write queue.
+     * */
+    void cancel(Class<?> responseType, CompletableFuture<?> future, Throwable cause) {
+        Request<?> cancelled = null;
+        synchronized (this) {
+            Deque<Request<?>> queue = pending.get(responseType);
+            if (queue != null) {
+                for (Iterator<Request<?>> it = queue.iterator(); it.hasNext(); ) {
+                    Request<?> request = it.next();
+                    if (request.future == future) {
+                        it.remove();
+                        cancelled = request;
+                        break;
+                    }
+                }
+            }
+        }
+        if (cancelled != null) {
+            cancelled.timeout.cancel(false);
+            cancelled.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Completes the oldest request waiting for the response of this type.
+     * Returns false if no request is waiting for it, e.g. if the server has pushed it.
+     * */
+    @SuppressWarnings("unchecked")
+    <R> boolean complete(Class<R> responseType, R response) {
+        Request<R> request;
+        synchronized (this) {
+            /* the dropped requests are older than the ones still queued */
+            Integer dropped = tombstones.get(responseType);
+            if (dropped != null) {
+                if (dropped == 1) {
+                    tombstones.remove(responseType);
+                } else {
+                    tombstones.put(responseType, dropped - 1);
+                }
+                logger.debug("Late response to a dropped {} request", responseType.getSimpleName());
+                return true;
+            }
+            Deque<Request<?>> queue = pending.get(responseType);
+            request = queue == null ? null : (Request<R>) queue.poll();
+        }
+        if (request == null) {
+            return false;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - request.sentAt);
+        latencies.computeIfAbsent(request.type, type -> new LatencyHistogram()).record(micros);
+        request.timeout.cancel(false);
+        if (request.expired) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Late response to {} #{} after {} us", request.type, request.id, micros);
+            }
+        } else {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Response to {} #{} in {} us", request.type, request.id, micros);
+            }
+            request.future.complete(response);
+        }
+        return true;
+    }
+
+    /**
+     * Fails every pending request, called once the connection is closed: no responses follow.
+     * */
+    void failAll(Throwable cause) {
+        List<Request<?>> failed = new ArrayList<>();
+        synchronized (this) {
+            for (Deque<Request<?>> queue : pending.values()) {
+                failed.addAll(queue);
+                queue.clear();
+            }
+            tombstones.clear();
+        }
+        for (Request<?> request : failed) {
+            request.timeout.cancel(false);
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Returns the round-trip times by the request type.
+     * */
+    Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Drops the requests expired twice the timeout ago, each one is replaced by a tombstone.
+     * */
+    private void purgeExpired(Class<?> responseType, Deque<Request<?>> queue) {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2 * timeoutMillis);
+        Request<?> head;
+        while ((head = queue.peek()) != null && head.expired && head.sentAt - deadline < 0) {
+            queue.poll();
+            tombstones.merge(responseType, 1, Integer::sum);
+            logger.warn("{} #{} has not been answered for {} ms", head.type, head.id, 2 * timeoutMillis);
+        }
+    }
+
+    private static class Request<R> {
+        private final long id;
+        private final String type;
+        private final long sentAt = System.nanoTime();
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        private volatile boolean expired;
+        private ScheduledFuture<?> timeout;
+
+        private Request(long id, String type) {
+            this.id = id;
+            this.type = type;
+        }
+    }
+}
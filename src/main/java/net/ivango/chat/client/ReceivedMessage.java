@@ -0,0 +1,39 @@
+package net.ivango.chat.client;
+
+import net.ivango.chat.common.responses.IncomingMessage;
+
+/**
+ * A chat message together with the time it was received.
+ * The protocol carries no send time, so the server time of the message is estimated
+ * from the receive time with the server clock offset and the one-way delay.
+ * */
+public class ReceivedMessage {
+
+    private final IncomingMessage message;
+    /** local monotonic time the message was received at, as {@link System#nanoTime()} */
+    private final long receivedNanos;
+    /** estimated server time the message was sent at, as UTC milliseconds */
+    private final long serverTime;
+    /** estimated time the message has spent on the way from the server, in nanoseconds */
+    private final long oneWayDelayNanos;
+
+    public ReceivedMessage(IncomingMessage message, long receivedNanos, ClockSync clock) {
+        this.message = message;
+        this.receivedNanos = receivedNanos;
+        this.oneWayDelayNanos = clock.getOneWayDelayNanos();
+        this.serverTime = clock.toServerTime(receivedNanos - oneWayDelayNanos);
+    }
+
+    public IncomingMessage getMessage() { return message; }
+
+    public long getReceivedNanos() { return receivedNanos; }
+
+    public long getServerTime() { return serverTime; }
+
+    /**
+     * Returns the estimated time from the server sending the message until now, in nanoseconds.
+     * */
+    public long getDeliveryLatencyNanos(long nowNanos) {
+        return nowNanos - receivedNanos + oneWayDelayNanos;
+    }
+}
@@ -0,0 +1,134 @@
+package net.ivango.chat.client;
+
+import net.ivango.chat.common.responses.User;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the user list of a server without the presence events as often as the user may look at it:
+ * fast for a while after the user has used the roster, e.g. opened the receiver list, slower once idle,
+ * and slowest while the session is not visible, i.e. the window is minimized or another session tab is shown.
+ * Once the interval shrinks, a poll older than the new interval is repeated at once,
+ * so the roster is never staler than the interval of the current activity.
+ * */
+class RosterPoller {
+
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final ScheduledExecutorService scheduler;
+    private final Runnable poll;
+    private final long activeInterval, idleInterval, hiddenInterval, activityTimeout;
+
+    /** the state is guarded by this */
+    private ScheduledFuture<?> nextPoll;
+    private boolean running;
+    private boolean visible = true;
+    private long lastInteraction = NEVER;
+    private long lastPoll;
+
+    RosterPoller(ScheduledExecutorService scheduler, ConnectionConfig config, Runnable poll) {
+        this.scheduler = scheduler;
+        this.poll = poll;
+        this.activeInterval = TimeUnit.MILLISECONDS.toNanos(config.getRosterPollActive());
+        this.idleInterval = TimeUnit.MILLISECONDS.toNanos(config.getRosterPollIdle());
+        this.hiddenInterval = TimeUnit.MILLISECONDS.toNanos(config.getRosterPollHidden());
+        this.activityTimeout = TimeUnit.MILLISECONDS.toNanos(config.getRosterActivityTimeout());
+    }
+
+    /**
+     * Starts polling, or restarts it once reconnected.
+     * */
+    synchronized void start() {
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+        }
+        running = true;
+        lastPoll = System.nanoTime();
+        schedule(interval(lastPoll));
+    }
+
+    synchronized void stop() {
+        running = false;
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+        }
+    }
+
+    /**
+     * Called once the user uses the roster, e.g. opens the receiver list.
+     * */
+    synchronized void onInteraction() {
+        lastInteraction = System.nanoTime();
+        reschedule();
+    }
+
+    synchronized void setVisible(boolean visible) {
+        if (this.visible != visible) {
+            this.visible = visible;
+            reschedule();
+        }
+    }
+
+    /**
+     * Returns the poll interval of the current activity in nanoseconds.
+     * */
+    private long interval(long now) {
+        if (!visible) {
+            return hiddenInterval;
+        }
+        return lastInteraction != NEVER && now - lastInteraction < activityTimeout ? activeInterval : idleInterval;
+    }
+
+    private void reschedule() {
+        if (!running) {
+            return;
+        }
+        nextPoll.cancel(false);
+        long now = System.nanoTime();
+        schedule(Math.max(0, lastPoll + interval(now) - now));
+    }
+
+    private void schedule(long delay) {
+        try {
+            nextPoll = scheduler.schedule(this::run, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            /* the runtime is shutting down */
+            running = false;
+        }
+    }
+
+    private void run() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            lastPoll = System.nanoTime();
+            schedule(interval(lastPoll));
+        }
+        poll.run();
+    }
+
+    /**
+     * Returns the hash of the user list content, independent of the order,
+     * so an unchanged poll result is told apart without diffing it.
+     * */
+    static long contentHash(List<User> users) {
+        long hash = users.size();
+        for (User user : users) {
+            long h = ((long) Objects.hashCode(user.getUserName()) << 32) ^ (Objects.hashCode(user.getAddress()) & 0xffffffffL);
+            /* the finalizer of MurmurHash3, spreads the bits before the order independent sum */
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            hash += h;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,109 @@
+package net.ivango.chat.client;
+
+import javafx.scene.control.Tab;
+import net.ivango.chat.client.misc.ConnectionProgressCallback;
+import net.ivango.chat.client.misc.ErrorDialogCallback;
+import net.ivango.chat.client.store.MessageStore;
+import net.ivango.chat.client.transfer.FileTransferManager;
+import net.ivango.chat.client.ui.MainFormController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A connection to a single chat server together with its main form.
+ * */
+public class Session {
+
+    private final String userName, hostname;
+    private final int port;
+    private final NetworkController networkController;
+    private final MainFormController mainFormController;
+    /** the tab showing the main form, set once connected */
+    private Tab tab;
+
+    private static Logger logger = LoggerFactory.getLogger(Session.class);
+
+    Session(String userName, String hostname, int port,
+            NetworkController networkController, MainFormController mainFormController) {
+        this.userName = userName;
+        this.hostname = hostname;
+        this.port = port;
+        this.networkController = networkController;
+        this.mainFormController = mainFormController;
+    }
+
+    /**
+     * Establishes the connection, the events are delivered to the main form.
+     * */
+    public CompletableFuture<Void> connect(ErrorDialogCallback errorDialogCallback,
+                                           ConnectionProgressCallback progressCallback) {
+        FxEventDispatcher eventDispatcher = new FxEventDispatcher(
+                mainFormController, mainFormController, mainFormController, mainFormController, mainFormController,
+                networkController.getMetrics());
+        return networkController.connect(userName, hostname, port, eventDispatcher, errorDialogCallback, progressCallback);
+    }
+
+    /**
+     * Opens the persistent history of the user on the server,
+     * returns null if it is unavailable, e.g. opened by another session with the same login.
+     * */
+    public MessageStore openHistory() {
+        try {
+            return MessageStore.open(MessageStore.directoryFor(userName, hostname, port));
+        } catch (IOException e) {
+            logger.error("Failed to open the message history of " + getTitle() + ", messages will not be saved", e);
+            return null;
+        }
+    }
+
+    public void sendMessage(String receiver, String message, boolean broadcast) {
+        networkController.sendMessage(receiver, message, broadcast);
+    }
+
+    /**
+     * Polls the user list faster for a while, called once the user uses it.
+     * */
+    public void onRosterInteraction() {
+        networkController.onRosterInteraction();
+    }
+
+    /**
+     * Called once the session is shown or hidden, e.g. by the window minimizing or the tab switch.
+     * */
+    public void setVisible(boolean visible) {
+        networkController.setRosterVisible(visible);
+    }
+
+    /**
+     * Returns the title of the session tab: user name and server address.
+     * */
+    public String getTitle() {
+        return userName + "@" + hostname + ":" + port;
+    }
+
+    /**
+     * Returns the estimate of the server clock.
+     * */
+    public ClockSync getClock() { return networkController.getClock(); }
+
+    /**
+     * Returns the files sent to and received from the other users.
+     * */
+    public FileTransferManager getFileTransfers() { return networkController.getFileTransfers(); }
+
+    public MainFormController getMainFormController() { return mainFormController; }
+
+    public Tab getTab() { return tab; }
+    public void setTab(Tab tab) { this.tab = tab; }
+
+    /**
+     * Disconnects and releases the resources of the main form.
+     * */
+    void close() {
+        networkController.onApplicationClose();
+        mainFormController.close();
+    }
+}
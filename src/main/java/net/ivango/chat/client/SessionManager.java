@@ -0,0 +1,60 @@
+package net.ivango.chat.client;
+
+import net.ivango.chat.client.io.IoRuntime;
+import net.ivango.chat.client.ui.MainFormController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the concurrent sessions of the process, e.g. connections to several chat servers.
+ * All the sessions run on the same I/O runtime: the I/O threads, the scheduler and the read buffers
+ * are paid for once, the binary codec schemas are cached process-wide as well.
+ * Used on the Java FX thread only.
+ * */
+public class SessionManager {
+
+    private final IoRuntime ioRuntime;
+    private final List<Session> sessions = new ArrayList<>();
+
+    public SessionManager(IoRuntime ioRuntime) {
+        this.ioRuntime = ioRuntime;
+    }
+
+    /**
+     * Creates a session not connected yet, the events are shown by the given main form.
+     * */
+    public Session open(String userName, String hostname, int port, MainFormController mainFormController) {
+        Session session = new Session(userName, hostname, port, new NetworkController(ioRuntime), mainFormController);
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Disconnects the session, does nothing if it is already closed.
+     * */
+    public void close(Session session) {
+        if (sessions.remove(session)) {
+            session.close();
+        }
+    }
+
+    public List<Session> getSessions() {
+        return Collections.unmodifiableList(sessions);
+    }
+
+    public boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+
+    /**
+     * Closes every session and stops the I/O runtime.
+     * */
+    public void closeAll() {
+        for (Session session : new ArrayList<>(sessions)) {
+            close(session);
+        }
+        ioRuntime.shutdown();
+    }
+}
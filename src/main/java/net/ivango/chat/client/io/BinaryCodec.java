@@ -0,0 +1,79 @@
+package net.ivango.chat.client.io;
+
+import net.ivango.chat.client.protocol.MessageTypes;
+import net.ivango.chat.common.requests.Message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary format: every frame is prefixed with its varint length,
+ * the body starts with the varint message type identifier followed by the message fields.
+ * No field names and no class names are written, which makes large user lists several times smaller
+ * and spares the JSON parsing and the class lookup by name.
+ * */
+public class BinaryCodec implements MessageCodec {
+
+    public static final String NAME = "binary";
+
+    /** reused by every encoded message */
+    private final BinaryWriter writer = new BinaryWriter();
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public FrameDecoder newFrameDecoder(BufferPool bufferPool) {
+        return new LengthPrefixedFrameDecoder(bufferPool);
+    }
+
+    @Override
+    public Message decode(ByteBuffer frame) throws MalformedMessageException, ClassNotFoundException {
+        try {
+            int id = (int) BinarySchema.readVarint(frame);
+            Class<? extends Message> type = MessageTypes.typeOf(id);
+            if (type == null) {
+                throw new ClassNotFoundException("Unknown message type identifier: " + id);
+            }
+            Message message = (Message) BinarySchema.of(type).read(frame);
+            if (frame.hasRemaining()) {
+                throw new MalformedMessageException(frame.remaining() + " trailing bytes after " + type.getName());
+            }
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new MalformedMessageException("Truncated message frame", e);
+        }
+    }
+
+    @Override
+    public Class<? extends Message> peekType(ByteBuffer frame) {
+        try {
+            return MessageTypes.typeOf((int) BinarySchema.readVarint(frame.duplicate()));
+        } catch (BufferUnderflowException | MalformedMessageException e) {
+            /* decoded by the reader then, which reports the error */
+            return null;
+        }
+    }
+
+    @Override
+    public ByteBuffer encode(Message message) {
+        write(message);
+        return writer.toFrame();
+    }
+
+    @Override
+    public ByteBuffer encodeBody(Message message) {
+        write(message);
+        return writer.body();
+    }
+
+    private void write(Message message) {
+        int id = MessageTypes.idOf(message.getClass());
+        if (id < 0) {
+            throw new IllegalArgumentException("Message type has no binary identifier: " + message.getClass().getName());
+        }
+        writer.reset();
+        writer.writeVarint(id);
+        BinarySchema.of(message.getClass()).write(message, writer);
+    }
+}
@@ -0,0 +1,329 @@
+package net.ivango.chat.client.io;
+
+import net.ivango.chat.client.protocol.MessageTypes;
+
+import java.lang.reflect.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Field layout of a class used by the binary codec.
+ * The instance fields are written in the order pinned by the {@link MessageTypes} layout of the class,
+ * without any names or tags, so both sides must use the same version of the message classes.
+ * The instances are created by the factory of the layout.
+ * Supported are the primitives and their wrappers, strings, enums, collections and the nested types having a layout.
+ * */
+class BinarySchema {
+
+    private static final ConcurrentMap<Class<?>, BinarySchema> schemas = new ConcurrentHashMap<>();
+
+    private final Class<?> type;
+    private final Field[] fields;
+    private final ValueCodec[] codecs;
+    private final Supplier<?> factory;
+
+    /**
+     * Returns the cached schema of the class.
+     * */
+    static BinarySchema of(Class<?> type) {
+        BinarySchema schema = schemas.get(type);
+        if (schema == null) {
+            schema = new BinarySchema(type);
+            BinarySchema existing = schemas.putIfAbsent(type, schema);
+            if (existing != null) {
+                schema = existing;
+            }
+        }
+        return schema;
+    }
+
+    private BinarySchema(Class<?> type) {
+        this.type = type;
+        MessageTypes.Layout layout = MessageTypes.layoutOf(type);
+        if (layout == null) {
+            throw new IllegalArgumentException("Type has no binary layout: " + type.getName());
+        }
+
+        Map<String, Field> instanceFields = new HashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                    instanceFields.putIfAbsent(field.getName(), field);
+                }
+            }
+        }
+        if (!instanceFields.keySet().equals(new HashSet<>(layout.getFields()))) {
+            /* a field missing in the layout would be silently dropped */
+            throw new IllegalStateException("Binary layout " + layout.getFields() + " of " + type.getName()
+                    + " does not match its fields " + instanceFields.keySet());
+        }
+
+        this.fields = new Field[layout.getFields().size()];
+        this.codecs = new ValueCodec[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = instanceFields.get(layout.getFields().get(i));
+            fields[i].setAccessible(true);
+            codecs[i] = codecFor(fields[i].getGenericType());
+        }
+        this.factory = layout.getFactory();
+    }
+
+    void write(Object value, BinaryWriter out) {
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                codecs[i].write(fields[i].get(value), out);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to access a field of " + type.getName(), e);
+        }
+    }
+
+    Object read(ByteBuffer in) throws MalformedMessageException {
+        try {
+            Object value = factory.get();
+            for (int i = 0; i < fields.length; i++) {
+                fields[i].set(value, codecs[i].read(in));
+            }
+            return value;
+        } catch (MalformedMessageException e) {
+            throw e;
+        } catch (BufferUnderflowException e) {
+            throw new MalformedMessageException("Truncated " + type.getName() + " message", e);
+        } catch (Exception e) {
+            throw new MalformedMessageException("Failed to instantiate " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Writes and reads a single value of the given type.
+     * */
+    private interface ValueCodec {
+        void write(Object value, BinaryWriter out);
+        Object read(ByteBuffer in) throws MalformedMessageException;
+    }
+
+    private static ValueCodec codecFor(Type type) {
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            Class<?> raw = (Class<?>) parameterized.getRawType();
+            if (Collection.class.isAssignableFrom(raw)) {
+                return new CollectionCodec(raw, codecFor(parameterized.getActualTypeArguments()[0]));
+            }
+        } else if (type instanceof Class) {
+            Class<?> c = (Class<?>) type;
+            if (c == String.class) {
+                return STRING;
+            } else if (c == boolean.class) {
+                return BOOLEAN;
+            } else if (c == Boolean.class) {
+                return nullable(BOOLEAN);
+            } else if (c == long.class || c == int.class || c == short.class || c == byte.class || c == char.class) {
+                return integral(c);
+            } else if (c == Long.class || c == Integer.class || c == Short.class || c == Byte.class || c == Character.class) {
+                return nullable(integral(c));
+            } else if (c == double.class || c == float.class) {
+                return floating(c);
+            } else if (c == Double.class || c == Float.class) {
+                return nullable(floating(c));
+            } else if (c.isEnum()) {
+                return new EnumCodec(c);
+            } else if (MessageTypes.layoutOf(c) != null) {
+                return nullable(new ObjectCodec(c));
+            }
+        }
+        throw new IllegalArgumentException("Type is not supported by the binary codec: " + type);
+    }
+
+    private static final ValueCodec STRING = new ValueCodec() {
+        public void write(Object value, BinaryWriter out) { out.writeString((String) value); }
+        public Object read(ByteBuffer in) throws MalformedMessageException { return readString(in); }
+    };
+
+    private static final ValueCodec BOOLEAN = new ValueCodec() {
+        public void write(Object value, BinaryWriter out) { out.writeByte((Boolean) value ? 1 : 0); }
+        public Object read(ByteBuffer in) { return in.get() != 0; }
+    };
+
+    private static ValueCodec integral(Class<?> c) {
+        return new ValueCodec() {
+            public void write(Object value, BinaryWriter out) {
+                out.writeSignedVarint(value instanceof Character ? (Character) value : ((Number) value).longValue());
+            }
+            public Object read(ByteBuffer in) throws MalformedMessageException {
+                long value = readSignedVarint(in);
+                if (c == long.class || c == Long.class) return value;
+                if (c == int.class || c == Integer.class) return (int) value;
+                if (c == short.class || c == Short.class) return (short) value;
+                if (c == byte.class || c == Byte.class) return (byte) value;
+                return (char) value;
+            }
+        };
+    }
+
+    private static ValueCodec floating(Class<?> c) {
+        return new ValueCodec() {
+            public void write(Object value, BinaryWriter out) { out.writeDouble(((Number) value).doubleValue()); }
+            public Object read(ByteBuffer in) {
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits |= (in.get() & 0xFFL) << (i * 8);
+                }
+                double value = Double.longBitsToDouble(bits);
+                return c == double.class || c == Double.class ? (Object) value : (Object) (float) value;
+            }
+        };
+    }
+
+    /**
+     * Prefixes the value with a presence byte.
+     * */
+    private static ValueCodec nullable(ValueCodec codec) {
+        return new ValueCodec() {
+            public void write(Object value, BinaryWriter out) {
+                out.writeByte(value == null ? 0 : 1);
+                if (value != null) {
+                    codec.write(value, out);
+                }
+            }
+            public Object read(ByteBuffer in) throws MalformedMessageException {
+                return in.get() == 0 ? null : codec.read(in);
+            }
+        };
+    }
+
+    private static class EnumCodec implements ValueCodec {
+        private final Object[] constants;
+
+        private EnumCodec(Class<?> type) {
+            this.constants = type.getEnumConstants();
+        }
+
+        public void write(Object value, BinaryWriter out) {
+            out.writeVarint(value == null ? 0 : ((Enum<?>) value).ordinal() + 1);
+        }
+
+        public Object read(ByteBuffer in) throws MalformedMessageException {
+            int index = (int) readVarint(in);
+            if (index > constants.length) {
+                throw new MalformedMessageException("Unknown enum constant " + (index - 1));
+            }
+            return index == 0 ? null : constants[index - 1];
+        }
+    }
+
+    private static class CollectionCodec implements ValueCodec {
+        private final Class<?> type;
+        private final ValueCodec elementCodec;
+
+        private CollectionCodec(Class<?> type, ValueCodec elementCodec) {
+            this.type = type;
+            this.elementCodec = elementCodec;
+        }
+
+        public void write(Object value, BinaryWriter out) {
+            if (value == null) {
+                out.writeVarint(0);
+                return;
+            }
+            Collection<?> collection = (Collection<?>) value;
+            out.writeVarint(collection.size() + 1L);
+            for (Object element : collection) {
+                elementCodec.write(element, out);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public Object read(ByteBuffer in) throws MalformedMessageException {
+            long size = readVarint(in) - 1;
+            if (size < 0) {
+                return null;
+            }
+            if (size > in.remaining()) {
+                throw new MalformedMessageException("Collection size exceeds the frame: " + size);
+            }
+            Collection<Object> collection = newCollection((int) size);
+            for (long i = 0; i < size; i++) {
+                collection.add(elementCodec.read(in));
+            }
+            return collection;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Collection<Object> newCollection(int size) throws MalformedMessageException {
+            if (type.isAssignableFrom(ArrayList.class)) {
+                return new ArrayList<>(size);
+            } else if (type.isAssignableFrom(LinkedHashSet.class)) {
+                return new LinkedHashSet<>(size * 2);
+            }
+            try {
+                return (Collection<Object>) type.newInstance();
+            } catch (Exception e) {
+                throw new MalformedMessageException("Failed to instantiate " + type.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Nested object, its schema is resolved lazily to support recursive types.
+     * */
+    private static class ObjectCodec implements ValueCodec {
+        private final Class<?> type;
+
+        private ObjectCodec(Class<?> type) {
+            this.type = type;
+        }
+
+        public void write(Object value, BinaryWriter out) {
+            if (value.getClass() != type) {
+                throw new IllegalArgumentException("Subclass " + value.getClass().getName()
+                        + " of " + type.getName() + " is not supported by the binary codec");
+            }
+            of(type).write(value, out);
+        }
+
+        public Object read(ByteBuffer in) throws MalformedMessageException {
+            return of(type).read(in);
+        }
+    }
+
+    static long readVarint(ByteBuffer in) throws MalformedMessageException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new MalformedMessageException("Malformed varint");
+    }
+
+    static long readSignedVarint(ByteBuffer in) throws MalformedMessageException {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static String readString(ByteBuffer in) throws MalformedMessageException {
+        long length = readVarint(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new MalformedMessageException("String length exceeds the frame: " + length);
+        }
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), (int) length, StandardCharsets.UTF_8);
+            in.position(in.position() + (int) length);
+            return value;
+        }
+        byte[] bytes = new byte[(int) length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+package net.ivango.chat.client.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable output buffer of the binary codec, reused between the messages.
+ * Integers are written as varints: 7 bits per byte, the high bit marks a continuation.
+ * */
+public class BinaryWriter {
+
+    /** room reserved in front of the body for the length prefix */
+    private static final int PREFIX_ROOM = 5;
+
+    private byte[] bytes = new byte[256];
+    private int position = PREFIX_ROOM;
+
+    /**
+     * Starts a new frame.
+     * */
+    public void reset() {
+        position = PREFIX_ROOM;
+    }
+
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        bytes[position++] = (byte) value;
+    }
+
+    public void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+    }
+
+    /**
+     * Writes the signed value with the zigzag encoding, so small negative numbers stay short.
+     * */
+    public void writeSignedVarint(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public void writeDouble(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++) {
+            bytes[position++] = (byte) (bits >>> (i * 8));
+        }
+    }
+
+    public void writeBytes(byte[] value, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(value, offset, bytes, position, length);
+        position += length;
+    }
+
+    /**
+     * Writes the string as its UTF-8 length + 1 followed by the bytes, zero stands for null.
+     * */
+    public void writeString(String value) {
+        if (value == null) {
+            writeVarint(0);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(utf8.length + 1L);
+        ensureCapacity(utf8.length);
+        System.arraycopy(utf8, 0, bytes, position, utf8.length);
+        position += utf8.length;
+    }
+
+    /**
+     * Returns a copy of the frame prefixed with the body length.
+     * */
+    public ByteBuffer toFrame() {
+        int length = position - PREFIX_ROOM;
+        int prefixSize = 1;
+        for (int rest = length >>> 7; rest != 0; rest >>>= 7) {
+            prefixSize++;
+        }
+        int start = PREFIX_ROOM - prefixSize;
+        int value = length;
+        for (int i = start; i < PREFIX_ROOM; i++) {
+            bytes[i] = (byte) (i == PREFIX_ROOM - 1 ? value & 0x7F : (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        return ByteBuffer.wrap(Arrays.copyOfRange(bytes, start, position));
+    }
+
+    /**
+     * Returns the body without the length prefix, the buffer is valid until the next reset.
+     * */
+    public ByteBuffer body() {
+        return ByteBuffer.wrap(bytes, PREFIX_ROOM, position - PREFIX_ROOM);
+    }
+
+    private void ensureCapacity(int size) {
+        if (position + size > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + size));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package net.ivango.chat.client.io;
+
+/**
+ * Creates the codecs by their negotiated names.
+ * */
+public final class Codecs {
+
+    /** prefix of the server capability advertising a codec, e.g. "codec:binary" */
+    public static final String CAPABILITY_PREFIX = "codec:";
+
+    private Codecs() {}
+
+    /**
+     * Returns a new codec instance, null if the name is unknown.
+     * */
+    public static MessageCodec create(String name) {
+        return create(name, DeflateCodec.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Returns a new codec instance compressing the messages from the given size if the name asks for that,
+     * null if the name is unknown.
+     * */
+    public static MessageCodec create(String name, int compressionThreshold) {
+        if (name != null && name.endsWith(DeflateCodec.SUFFIX)) {
+            MessageCodec inner = create(name.substring(0, name.length() - DeflateCodec.SUFFIX.length()));
+            return inner != null ? new DeflateCodec(inner, compressionThreshold) : null;
+        }
+        if (JsonCodec.NAME.equals(name)) {
+            return new JsonCodec();
+        } else if (BinaryCodec.NAME.equals(name)) {
+            return new BinaryCodec();
+        }
+        return null;
+    }
+}
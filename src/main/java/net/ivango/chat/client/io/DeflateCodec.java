@@ -0,0 +1,173 @@
+package net.ivango.chat.client.io;
+
+import net.ivango.chat.client.protocol.MessageTypes;
+import net.ivango.chat.common.requests.Message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressing decorator of another codec, named after it with the "+deflate" suffix, e.g. "binary+deflate".
+ * Every frame is prefixed with its varint length, the body starts with the flags and the message type identifier + 1
+ * (0 if the type has none), so the frames are routed without inflating them. The message encoded by the inner codec
+ * follows: as is if shorter than the threshold, otherwise deflated and preceded by its original length.
+ * Every message is deflated on its own, so the messages are still decoded in parallel,
+ * and the shared dictionary of the common names and field values makes up for the lost context.
+ * The zlib streams live in the native memory until the codec is closed.
+ * */
+public class DeflateCodec implements MessageCodec {
+
+    public static final String SUFFIX = "+deflate";
+    /** messages shorter than that are sent as is, the deflate header and the CPU time would not pay off */
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    private static final int FLAG_DEFLATED = 1;
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    /** the likely strings, the ones at the end are the cheapest to refer to */
+    private static final byte[] DICTIONARY = (
+            "\"senderName\":\"\"broadcast\":true\"broadcast\":false"
+            + "{\"className\":\"net.ivango.chat.client.protocol.UserJoinedEvent\",\"body\":{\"user\":"
+            + "{\"className\":\"net.ivango.chat.client.protocol.UserLeftEvent\",\"body\":{\"user\":"
+            + "{\"className\":\"net.ivango.chat.common.responses.GetTimeResponse\",\"body\":{\"utcServerTime\":"
+            + "{\"className\":\"net.ivango.chat.common.responses.IncomingMessage\",\"body\":{\"from\":\"\",\"message\":\""
+            + "/192.168./10./172./127.0.0.1:"
+            + "{\"className\":\"net.ivango.chat.common.responses.GetUsersResponse\",\"body\":{\"users\":["
+            + "{\"userName\":\"\",\"address\":\"/").getBytes(StandardCharsets.UTF_8);
+
+    private final MessageCodec inner;
+    private final int threshold;
+
+    /** reused by every encoded message, encode is called under the send lock */
+    private final Deflater deflater = new Deflater();
+    private final BinaryWriter writer = new BinaryWriter();
+    private byte[] deflated = new byte[1024];
+    /** reused by every decoded message */
+    private final Inflater inflater = new Inflater();
+    private byte[] inflated = new byte[1024];
+
+    public DeflateCodec(MessageCodec inner, int threshold) {
+        this.inner = inner;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public String getName() { return inner.getName() + SUFFIX; }
+
+    @Override
+    public FrameDecoder newFrameDecoder(BufferPool bufferPool) {
+        return new LengthPrefixedFrameDecoder(bufferPool);
+    }
+
+    @Override
+    public Class<? extends Message> peekType(ByteBuffer frame) {
+        try {
+            ByteBuffer header = frame.duplicate();
+            header.get();
+            return MessageTypes.typeOf((int) BinarySchema.readVarint(header) - 1);
+        } catch (BufferUnderflowException | MalformedMessageException e) {
+            /* decoded by the reader then, which reports the error */
+            return null;
+        }
+    }
+
+    @Override
+    public Message decode(ByteBuffer frame) throws MalformedMessageException, ClassNotFoundException {
+        try {
+            int flags = frame.get();
+            BinarySchema.readVarint(frame);
+            if ((flags & FLAG_DEFLATED) == 0) {
+                return inner.decode(frame);
+            }
+            long size = BinarySchema.readVarint(frame);
+            if (size > MAX_MESSAGE_SIZE) {
+                throw new MalformedMessageException("Deflated message exceeds " + MAX_MESSAGE_SIZE + " bytes");
+            }
+            return inner.decode(inflate(frame, (int) size));
+        } catch (BufferUnderflowException e) {
+            throw new MalformedMessageException("Truncated message frame", e);
+        }
+    }
+
+    @Override
+    public ByteBuffer encode(Message message) {
+        ByteBuffer body = inner.encodeBody(message);
+        writer.reset();
+        int size = body.remaining();
+        int deflatedSize = size >= threshold ? deflate(body) : -1;
+        /* incompressible messages are sent as is */
+        boolean compressed = deflatedSize >= 0 && deflatedSize < size;
+        writer.writeByte(compressed ? FLAG_DEFLATED : 0);
+        writer.writeVarint(MessageTypes.idOf(message.getClass()) + 1);
+        if (compressed) {
+            writer.writeVarint(size);
+            writer.writeBytes(deflated, 0, deflatedSize);
+        } else {
+            writer.writeBytes(body.array(), body.arrayOffset() + body.position(), size);
+        }
+        return writer.toFrame();
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+        inflater.end();
+        inner.close();
+    }
+
+    /**
+     * Deflates the body into the reused buffer, returns the deflated size.
+     * */
+    private int deflate(ByteBuffer body) {
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            size += deflater.deflate(deflated, size, deflated.length - size);
+        }
+        return size;
+    }
+
+    /**
+     * Inflates the rest of the frame into the reused buffer, the result must be of the given size.
+     * */
+    private ByteBuffer inflate(ByteBuffer frame, int size) throws MalformedMessageException {
+        byte[] input = new byte[frame.remaining()];
+        frame.get(input);
+        if (inflated.length < size) {
+            inflated = new byte[size];
+        }
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            int inflatedSize = 0;
+            while (!inflater.finished()) {
+                int read = inflater.inflate(inflated, inflatedSize, size - inflatedSize);
+                inflatedSize += read;
+                if (read == 0 && !inflater.finished()) {
+                    if (!inflater.needsDictionary()) {
+                        /* the input has ended or the output is larger than the size */
+                        throw new MalformedMessageException("Deflated message does not match its size " + size);
+                    }
+                    inflater.setDictionary(DICTIONARY);
+                }
+            }
+            if (inflatedSize != size) {
+                throw new MalformedMessageException("Deflated message does not match its size " + size);
+            }
+        } catch (DataFormatException e) {
+            throw new MalformedMessageException("Failed to inflate the message", e);
+        }
+        return ByteBuffer.wrap(inflated, 0, size);
+    }
+}
@@ -0,0 +1,163 @@
+package net.ivango.chat.client.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder splitting the inbound byte stream into separate message frames.
+ * A single socket read may contain several frames, a part of a frame, or both,
+ * so the decoder keeps its state between reads and holds on to the incomplete tail.
+ * The input is read into a pooled direct buffer which grows only when a single frame does not fit into it.
+ * Subclasses define the frame boundaries.
+ * */
+public abstract class FrameDecoder {
+
+    /**
+     * Receives every complete frame found in the stream.
+     * */
+    public interface FrameHandler {
+        /**
+         * The frame buffer is reused by the decoder and is valid only during the call.
+         * Returns false to stop decoding: the rest of the input stays in the decoder,
+         * so it could be passed to another decoder once the wire format changes.
+         * */
+        boolean onFrame(ByteBuffer frame);
+    }
+
+    /** protection against a broken stream: a frame larger than that is never expected */
+    protected static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private final BufferPool bufferPool;
+
+    /** accumulates the raw input, stays in the "write" mode between the reads */
+    protected ByteBuffer buffer;
+    /** index of the first byte of the current (incomplete) frame */
+    protected int frameStart;
+    /** index of the next byte to scan */
+    protected int scanPosition;
+
+    protected FrameDecoder(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.buffer = bufferPool.acquire(bufferPool.getBufferSize());
+    }
+
+    /**
+     * Returns the buffer the next socket read should be performed into.
+     * */
+    public ByteBuffer getReadBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Scans the bytes received since the last call and passes every complete frame to the handler.
+     * Returns false if the handler has stopped the decoding.
+     * */
+    public boolean decode(FrameHandler handler) throws IOException {
+        boolean completed = scan(handler, buffer.position());
+        compact();
+        return completed;
+    }
+
+    /**
+     * Moves the undecoded input to the other decoder, used when the wire format changes mid-stream.
+     * */
+    public void transferTo(FrameDecoder next) throws IOException {
+        buffer.flip();
+        buffer.position(frameStart);
+        while (buffer.hasRemaining()) {
+            ByteBuffer target = next.getReadBuffer();
+            if (!target.hasRemaining()) {
+                next.compact();
+                continue;
+            }
+            int chunk = Math.min(buffer.remaining(), target.remaining());
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(slice.position() + chunk);
+            target.put(slice);
+            buffer.position(buffer.position() + chunk);
+        }
+        buffer.clear();
+        frameStart = 0;
+        scanPosition = 0;
+    }
+
+    /**
+     * Returns a copy of the undecoded input and clears it, used once the stream stops carrying messages,
+     * e.g. a data connection streaming a file after its request.
+     * */
+    public ByteBuffer takeRemaining() {
+        buffer.flip();
+        buffer.position(frameStart);
+        ByteBuffer remaining = ByteBuffer.allocate(buffer.remaining());
+        remaining.put(buffer).flip();
+        buffer.clear();
+        frameStart = 0;
+        scanPosition = 0;
+        return remaining;
+    }
+
+    /**
+     * Returns the buffers to the pool, the decoder cannot be used afterwards.
+     * */
+    public void release() {
+        bufferPool.release(buffer);
+    }
+
+    /**
+     * Scans the bytes [scanPosition, end) and emits the complete frames.
+     * Returns false if the handler has stopped the decoding.
+     * */
+    protected abstract boolean scan(FrameHandler handler, int end) throws IOException;
+
+    /**
+     * Passes the frame bytes [from, to) to the handler, the next frame starts at nextFrameStart.
+     * */
+    protected boolean emit(FrameHandler handler, int from, int to, int nextFrameStart) {
+        int end = buffer.position();
+        buffer.limit(to).position(from);
+        boolean proceed;
+        try {
+            proceed = handler.onFrame(buffer);
+        } finally {
+            /* restore the "write" mode */
+            buffer.limit(buffer.capacity()).position(end);
+        }
+        frameStart = nextFrameStart;
+        return proceed;
+    }
+
+    /**
+     * Moves the incomplete tail to the beginning of the buffer.
+     * Grows the buffer if the tail occupies it completely and returns to the pooled one once it fits again.
+     * */
+    private void compact() throws IOException {
+        int tail = buffer.position() - frameStart;
+        if (buffer.capacity() > bufferPool.getBufferSize() && tail < bufferPool.getBufferSize()) {
+            replaceBuffer(bufferPool.acquire(bufferPool.getBufferSize()));
+        } else if (frameStart > 0) {
+            buffer.flip();
+            buffer.position(frameStart);
+            buffer.compact();
+        }
+        scanPosition -= frameStart;
+        frameStart = 0;
+
+        if (!buffer.hasRemaining()) {
+            if (buffer.capacity() >= MAX_FRAME_SIZE) {
+                throw new IOException("Input message exceeds " + MAX_FRAME_SIZE + " bytes");
+            }
+            replaceBuffer(bufferPool.acquire(Math.min(buffer.capacity() * 2, MAX_FRAME_SIZE)));
+        }
+    }
+
+    /**
+     * Copies the incomplete tail to the new buffer and releases the old one.
+     * */
+    private void replaceBuffer(ByteBuffer replacement) {
+        buffer.flip();
+        buffer.position(frameStart);
+        replacement.put(buffer);
+        bufferPool.release(buffer);
+        buffer = replacement;
+    }
+}
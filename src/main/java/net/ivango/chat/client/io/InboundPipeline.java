@@ -0,0 +1,185 @@
+package net.ivango.chat.client.io;
+
+import net.ivango.chat.client.log.RateLimitedLogger;
+import net.ivango.chat.client.metrics.ClientMetrics;
+import net.ivango.chat.client.misc.ErrorDialogCallback;
+import net.ivango.chat.common.requests.Message;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Decodes and routes the inbound frames of a connection off the reader thread.
+ * The reader only splits the stream into frames, tells the message type from the first bytes of a frame
+ * and passes a copy of the frame to the lane of that type, then reads on.
+ * The lanes decode and handle their messages in order, one at a time, on a small shared worker pool,
+ * so a large user list does not hold up the chat messages behind it while the messages of a lane stay ordered.
+ * A frame whose type cannot be told is decoded by the reader. The inline routes, e.g. the codec switch,
+ * are handled by the reader, as the following frames depend on them.
+ * */
+public class InboundPipeline {
+
+    /**
+     * Handles the decoded message, receivedNanos is the local time the read carrying it has completed at.
+     * */
+    public interface Route<T extends Message> {
+        void onMessage(T message, long receivedNanos);
+    }
+
+    private final Map<Class<?>, RouteEntry> routes = new HashMap<>();
+    private final Lane[] lanes;
+    private final ClientMetrics metrics;
+    private final ErrorDialogCallback errorDialogCallback;
+    /** incremented by every new connection, the frames of the previous one are dropped */
+    private volatile int generation;
+
+    /** a broken stream fails every frame, shared by all the connections */
+    private static RateLimitedLogger logger = new RateLimitedLogger(InboundPipeline.class);
+
+    public InboundPipeline(Executor workers, int laneCount, ClientMetrics metrics, ErrorDialogCallback errorDialogCallback) {
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(workers);
+        }
+        this.metrics = metrics;
+        this.errorDialogCallback = errorDialogCallback;
+    }
+
+    /**
+     * Routes the messages of the type to the given lane. The routes are registered before the first frame.
+     * */
+    public <T extends Message> void route(Class<T> type, int lane, Route<T> route) {
+        routes.put(type, new RouteEntry(lanes[lane], route));
+    }
+
+    /**
+     * Routes the messages of the type to the reader thread.
+     * */
+    public <T extends Message> void routeInline(Class<T> type, Route<T> route) {
+        routes.put(type, new RouteEntry(null, route));
+    }
+
+    /**
+     * Drops the frames of the previous connection still waiting in the lanes
+     * and closes the codecs of the lanes once their queued frames are done.
+     * */
+    public void reset() {
+        generation++;
+        for (Lane lane : lanes) {
+            lane.executor.execute(lane::closeCodec);
+        }
+    }
+
+    /**
+     * Passes the frame decoded by the given codec to its lane, called by the reader.
+     * The frame is valid only during the call.
+     * */
+    public void onFrame(ByteBuffer frame, MessageCodec codec, long receivedNanos) {
+        Class<? extends Message> type = codec.peekType(frame);
+        RouteEntry peeked = type != null ? routes.get(type) : null;
+        if (peeked != null && peeked.lane != null) {
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame).flip();
+            int frameGeneration = generation;
+            String codecName = codec.getName();
+            peeked.lane.executor.execute(() -> {
+                if (frameGeneration == generation) {
+                    Message message = peeked.lane.decode(copy, codecName);
+                    if (message != null) {
+                        handle(peeked, message, receivedNanos);
+                    }
+                }
+            });
+            return;
+        }
+
+        /* the inline routes and the frames of an unknown type */
+        Message message = decode(codec, frame);
+        if (message == null) {
+            return;
+        }
+        RouteEntry route = routes.get(message.getClass());
+        if (route == null) {
+            logger.warn("route", "No handler for the input message {}", message.getClass().getName(), null);
+        } else if (route.lane == null) {
+            handle(route, message, receivedNanos);
+        } else {
+            int frameGeneration = generation;
+            route.lane.executor.execute(() -> {
+                if (frameGeneration == generation) {
+                    handle(route, message, receivedNanos);
+                }
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(RouteEntry route, Message message, long receivedNanos) {
+        try {
+            ((Route<Message>) route.route).onMessage(message, receivedNanos);
+        } catch (RuntimeException e) {
+            logger.error("handle", "Failed to handle the input message {}", message.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Maps the frame to a message, returns null if it is broken.
+     * */
+    private Message decode(MessageCodec codec, ByteBuffer frame) {
+        try {
+            long decodeStarted = System.nanoTime();
+            Message message = codec.decode(frame);
+            metrics.onDecoded(System.nanoTime() - decodeStarted);
+            metrics.onMessageReceived(message.getClass());
+            return message;
+        } catch (MalformedMessageException ie) {
+            logger.error("decode", "Failed to parse the input message", ie);
+            errorDialogCallback.showErrorDialog("Failed to parse the input message", ie);
+        } catch (ClassNotFoundException e) {
+            logger.error("decode", "Failed to map the input message, class not found", e);
+            errorDialogCallback.showErrorDialog("Failed to map the input message, class not found", e);
+        }
+        return null;
+    }
+
+    private static class RouteEntry {
+        /** null for the inline routes */
+        private final Lane lane;
+        private final Route<?> route;
+
+        private RouteEntry(Lane lane, Route<?> route) {
+            this.lane = lane;
+            this.route = route;
+        }
+    }
+
+    /**
+     * Serial lane with a codec of its own, as the codecs reuse their buffers.
+     * */
+    private class Lane {
+        private final SerialExecutor executor;
+        /** used by the lane tasks only, replaced once the wire format changes */
+        private MessageCodec codec;
+
+        private Lane(Executor workers) {
+            this.executor = new SerialExecutor(workers);
+        }
+
+        private Message decode(ByteBuffer frame, String codecName) {
+            if (codec == null || !codec.getName().equals(codecName)) {
+                closeCodec();
+                codec = Codecs.create(codecName);
+            }
+            return InboundPipeline.this.decode(codec, frame);
+        }
+
+        private void closeCodec() {
+            if (codec != null) {
+                codec.close();
+                codec = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package net.ivango.chat.client.io;
+
+import net.ivango.chat.client.metrics.ClientMetrics;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * I/O threads, timers and read buffers shared by the connections of the process.
+ * The channel group completes the socket operations of every connection opened in it,
+ * the scheduler runs the periodic requests, timeouts and reconnects, none of its tasks blocks.
+ * The decode workers map the inbound frames to messages and run their handlers.
+ * The resolver threads run the blocking host name lookups, so a slow DNS server holds up neither the other threads
+ * nor the common pool of the JVM. The file thread verifies the partial files of the accepted transfers.
+ * So the number of threads stays the same however many connections there are.
+ * The connections report to the same metrics as well.
+ * */
+public class IoRuntime {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private final AsynchronousChannelGroup channelGroup;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ExecutorService decodeExecutor;
+    private final ExecutorService resolverExecutor;
+    private final ExecutorService fileExecutor;
+    private final BufferPool bufferPool = new BufferPool(READ_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final ClientMetrics metrics = new ClientMetrics();
+
+    public IoRuntime(int ioThreads, int schedulerThreads) throws IOException {
+        this(ioThreads, schedulerThreads, 2);
+    }
+
+    public IoRuntime(int ioThreads, int schedulerThreads, int decodeThreads) throws IOException {
+        this(ioThreads, schedulerThreads, decodeThreads, 4);
+    }
+
+    public IoRuntime(int ioThreads, int schedulerThreads, int decodeThreads, int resolverThreads) throws IOException {
+        this.channelGroup = AsynchronousChannelGroup.withFixedThreadPool(ioThreads, daemonThreads("chat-io"));
+        this.decodeExecutor = Executors.newFixedThreadPool(decodeThreads, daemonThreads("chat-decode"));
+        this.resolverExecutor = Executors.newFixedThreadPool(resolverThreads, daemonThreads("chat-resolver"));
+        this.fileExecutor = Executors.newSingleThreadExecutor(daemonThreads("chat-file"));
+        this.scheduler = new ScheduledThreadPoolExecutor(schedulerThreads, daemonThreads("chat-scheduler"));
+        /* the timeouts are cancelled almost always, they should not stay in the queue until they are due */
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Creates the runtime sized by the "chat.client.ioThreads", "chat.client.schedulerThreads",
+     * "chat.client.decodeThreads" and "chat.client.resolverThreads" properties.
+     * */
+    public static IoRuntime fromSystemProperties() throws IOException {
+        int ioThreads = Integer.getInteger("chat.client.ioThreads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+        int schedulerThreads = Integer.getInteger("chat.client.schedulerThreads", 1);
+        int decodeThreads = Integer.getInteger("chat.client.decodeThreads", 2);
+        int resolverThreads = Integer.getInteger("chat.client.resolverThreads", 4);
+        return new IoRuntime(ioThreads, schedulerThreads, decodeThreads, resolverThreads);
+    }
+
+    public AsynchronousChannelGroup getChannelGroup() { return channelGroup; }
+
+    public ScheduledExecutorService getScheduler() { return scheduler; }
+
+    public ExecutorService getDecodeExecutor() { return decodeExecutor; }
+
+    public ExecutorService getResolverExecutor() { return resolverExecutor; }
+
+    public ExecutorService getFileExecutor() { return fileExecutor; }
+
+    public BufferPool getBufferPool() { return bufferPool; }
+
+    public ClientMetrics getMetrics() { return metrics; }
+
+    /**
+     * Stops the threads, the connections still open are closed.
+     * */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        decodeExecutor.shutdownNow();
+        resolverExecutor.shutdownNow();
+        fileExecutor.shutdownNow();
+        try {
+            channelGroup.shutdownNow();
+            channelGroup.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            /* the channels are being closed anyway */
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package net.ivango.chat.client.io;
+
+import com.google.gson.JsonSyntaxException;
+import net.ivango.chat.client.protocol.MessageTypes;
+import net.ivango.chat.common.JSONMapper;
+import net.ivango.chat.common.requests.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Text JSON format of the common JSONMapper, the default one understood by every server.
+ * Frames are decoded as UTF-8 straight into a reused char buffer.
+ * The JSONMapper writes the class name first, so the type of a frame is told by its first bytes.
+ * */
+public class JsonCodec implements MessageCodec {
+
+    public static final String NAME = "json";
+    private static final byte[] CLASS_NAME_PREFIX = "{\"className\":\"".getBytes(StandardCharsets.US_ASCII);
+    /** longer class names are not looked up, the frame is decoded to tell its type */
+    private static final int MAX_CLASS_NAME = 128;
+
+    /* mapper used to convert Messages to JSON and back */
+    private final JSONMapper jsonMapper = new JSONMapper();
+    private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /** decoded characters of the current frame */
+    private CharBuffer chars = CharBuffer.allocate(2048);
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public FrameDecoder newFrameDecoder(BufferPool bufferPool) {
+        return new JsonFrameDecoder(bufferPool);
+    }
+
+    @Override
+    public Message decode(ByteBuffer frame) throws MalformedMessageException, ClassNotFoundException {
+        try {
+            /* JSONMapper accepts strings only, so this is the only copy made */
+            return (Message) jsonMapper.fromJson(decodeChars(frame).toString());
+        } catch (JsonSyntaxException e) {
+            throw new MalformedMessageException("Failed to parse the input JSON", e);
+        }
+    }
+
+    @Override
+    public Class<? extends Message> peekType(ByteBuffer frame) {
+        int start = frame.position() + CLASS_NAME_PREFIX.length;
+        if (frame.limit() < start) {
+            return null;
+        }
+        for (int i = 0; i < CLASS_NAME_PREFIX.length; i++) {
+            if (frame.get(frame.position() + i) != CLASS_NAME_PREFIX[i]) {
+                return null;
+            }
+        }
+        int end = Math.min(frame.limit(), start + MAX_CLASS_NAME);
+        for (int i = start; i < end; i++) {
+            if (frame.get(i) == '"') {
+                byte[] name = new byte[i - start];
+                for (int j = 0; j < name.length; j++) {
+                    name[j] = frame.get(start + j);
+                }
+                return MessageTypes.typeOf(new String(name, StandardCharsets.US_ASCII));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ByteBuffer encode(Message message) {
+        String json = jsonMapper.toJSON(message);
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes the UTF-8 frame into the reused char buffer.
+     * */
+    private CharBuffer decodeChars(ByteBuffer frame) {
+        /* UTF-8 never takes more chars than bytes */
+        if (chars.capacity() < frame.remaining()) {
+            chars = CharBuffer.allocate(frame.remaining());
+        }
+        chars.clear();
+        utf8.reset();
+        CoderResult result = utf8.decode(frame, chars, true);
+        if (!result.isUnderflow()) {
+            /* cannot happen with the REPLACE actions and enough room */
+            throw new IllegalStateException("Failed to decode the input message: " + result);
+        }
+        utf8.flush(chars);
+        chars.flip();
+        return chars;
+    }
+}
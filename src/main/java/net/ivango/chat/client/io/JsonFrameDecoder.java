@@ -0,0 +1,52 @@
+package net.ivango.chat.client.io;
+
+/**
+ * Splits the stream of JSON messages written back to back without any delimiter.
+ * A frame ends with the bracket closing its top-level object,
+ * the brackets inside the string literals are skipped.
+ * */
+public class JsonFrameDecoder extends FrameDecoder {
+
+    /** scanner state: nesting level of the objects/ arrays and string literal flags */
+    private int depth;
+    private boolean inString, escaped;
+
+    public JsonFrameDecoder(BufferPool bufferPool) {
+        super(bufferPool);
+    }
+
+    @Override
+    protected boolean scan(FrameHandler handler, int end) {
+        for (int i = scanPosition; i < end; i++) {
+            byte b = buffer.get(i);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth <= 0) {
+                    if (depth == 0 && !emit(handler, frameStart, i + 1, i + 1)) {
+                        scanPosition = i + 1;
+                        return false;
+                    }
+                    /* a stray closing bracket is skipped along with the message */
+                    depth = 0;
+                    frameStart = i + 1;
+                }
+            } else if (depth == 0 && Character.isWhitespace(b)) {
+                /* skip the whitespaces between the messages */
+                frameStart = i + 1;
+            }
+        }
+        scanPosition = end;
+        return true;
+    }
+}
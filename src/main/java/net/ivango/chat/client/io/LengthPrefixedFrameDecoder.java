@@ -0,0 +1,52 @@
+package net.ivango.chat.client.io;
+
+import java.io.IOException;
+
+/**
+ * Splits the stream of frames prefixed with their varint-encoded length.
+ * The handler receives the frame body without the prefix.
+ * */
+public class LengthPrefixedFrameDecoder extends FrameDecoder {
+
+    public LengthPrefixedFrameDecoder(BufferPool bufferPool) {
+        super(bufferPool);
+    }
+
+    @Override
+    protected boolean scan(FrameHandler handler, int end) throws IOException {
+        while (true) {
+            /* decode the length prefix, wait for more input if it is incomplete */
+            int length = 0;
+            int position = frameStart;
+            int shift = 0;
+            boolean prefixComplete = false;
+            while (position < end) {
+                byte b = buffer.get(position++);
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    prefixComplete = true;
+                    break;
+                }
+                shift += 7;
+                if (shift > 28) {
+                    throw new IOException("Malformed frame length prefix");
+                }
+            }
+            if (!prefixComplete) {
+                break;
+            }
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new IOException("Input message exceeds " + MAX_FRAME_SIZE + " bytes");
+            }
+            if (end - position < length) {
+                break;
+            }
+            if (!emit(handler, position, position + length, position + length)) {
+                scanPosition = frameStart;
+                return false;
+            }
+        }
+        scanPosition = end;
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+package net.ivango.chat.client.io;
+
+import java.io.IOException;
+
+/**
+ * Signals that an inbound frame cannot be mapped to a message.
+ * */
+public class MalformedMessageException extends IOException {
+
+    public MalformedMessageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public MalformedMessageException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,54 @@
+package net.ivango.chat.client.io;
+
+import net.ivango.chat.common.requests.Message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of the messages: defines the framing and maps the messages to bytes and back.
+ * Codecs keep reusable buffers, so an instance serves a single connection:
+ * decode is called by a single thread at a time and encode is called under the connection send lock.
+ * A codec replaced or dropped is closed by the thread using it, as it may hold the native memory.
+ * */
+public interface MessageCodec extends AutoCloseable {
+
+    /** name used in the codec negotiation */
+    String getName();
+
+    /**
+     * Creates the decoder splitting the inbound stream into the frames of this format.
+     * */
+    FrameDecoder newFrameDecoder(BufferPool bufferPool);
+
+    /**
+     * Maps the frame produced by the frame decoder to a message.
+     * */
+    Message decode(ByteBuffer frame) throws MalformedMessageException, ClassNotFoundException;
+
+    /**
+     * Returns the type of the message in the frame without decoding it, null if it cannot be told cheaply.
+     * Leaves the frame as it is, may be called concurrently with decode.
+     * */
+    default Class<? extends Message> peekType(ByteBuffer frame) {
+        return null;
+    }
+
+    /**
+     * Maps the message to a complete frame ready to be written to the socket.
+     * */
+    ByteBuffer encode(Message message);
+
+    /**
+     * Maps the message to a frame body as passed to decode, without the framing of the format.
+     * The buffer may be reused by the next call.
+     * */
+    default ByteBuffer encodeBody(Message message) {
+        return encode(message);
+    }
+
+    /**
+     * Releases the native resources of the codec, it is not used afterwards.
+     * */
+    @Override
+    default void close() {}
+}
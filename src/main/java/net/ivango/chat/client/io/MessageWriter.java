@@ -0,0 +1,283 @@
+package net.ivango.chat.client.io;
+
+import net.ivango.chat.client.metrics.ClientMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-writer outbound queue of a socket channel.
+ * Callers never block: messages are queued and written asynchronously,
+ * the messages queued meanwhile are written together with a single gathering write.
+ * With a coalescing window a message queued to an idle writer waits for the window to pass,
+ * so a burst of messages goes out with one write and fewer TCP segments,
+ * unless the queued bytes reach the coalescing limit first. Without a window the messages are written at once.
+ * Partial writes are continued until every buffer is flushed.
+ * Once the queued bytes exceed the high-water mark new messages are rejected.
+ * The queue size and the written bytes are reported to the metrics, if any.
+ * */
+public class MessageWriter {
+
+    /** max number of messages written with one gathering write */
+    private static final int MAX_BATCH = 64;
+
+    private final AsynchronousSocketChannel channel;
+    private final long highWaterMark;
+    private final ClientMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    /** microseconds a message waits for others to be written together with, 0 writes at once */
+    private final long coalesceWindow;
+    /** queued bytes which are written without waiting for the window to pass */
+    private final long coalesceLimit;
+
+    private final ConcurrentLinkedQueue<PendingWrite> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    /** set while a write is in progress, only the owner of the flag touches the batch */
+    private final AtomicBoolean writing = new AtomicBoolean();
+    /** set while a delayed flush is scheduled */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile Throwable failure;
+
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+    private final PendingWrite[] batchWrites = new PendingWrite[MAX_BATCH];
+    private int batchOffset, batchSize;
+
+    private final WriteHandler writeHandler = new WriteHandler();
+
+    public MessageWriter(AsynchronousSocketChannel channel, long highWaterMark) {
+        this(channel, highWaterMark, null);
+    }
+
+    public MessageWriter(AsynchronousSocketChannel channel, long highWaterMark, ClientMetrics metrics) {
+        this(channel, highWaterMark, metrics, null, 0, 0);
+    }
+
+    /**
+     * Creates the writer coalescing the messages for the given number of microseconds, the delayed writes
+     * are started by the scheduler.
+     * */
+    public MessageWriter(AsynchronousSocketChannel channel, long highWaterMark, ClientMetrics metrics,
+                         ScheduledExecutorService scheduler, long coalesceWindow, long coalesceLimit) {
+        this.channel = channel;
+        this.highWaterMark = highWaterMark;
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.coalesceWindow = scheduler != null ? coalesceWindow : 0;
+        this.coalesceLimit = coalesceLimit;
+    }
+
+    /**
+     * Queues the data for writing.
+     * The returned future completes once the data is handed over to the socket,
+     * or completes exceptionally if the queue is full or the channel has failed.
+     * */
+    public CompletableFuture<Void> write(ByteBuffer data) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (failure != null) {
+            future.completeExceptionally(failure);
+            return future;
+        }
+        int size = data.remaining();
+        /* reported before the queue grows, so the failure never drops bytes not reported yet */
+        if (metrics != null) {
+            metrics.onWriteQueueChanged(size);
+        }
+        long queued = queuedBytes.addAndGet(size);
+        /* a single message is always accepted by the empty queue */
+        if (queued > highWaterMark && queued > size) {
+            queuedBytes.addAndGet(-size);
+            if (metrics != null) {
+                metrics.onWriteQueueChanged(-size);
+            }
+            future.completeExceptionally(new WriteQueueFullException(
+                    "Outbound queue is full: " + (queued - size) + " bytes pending"));
+            return future;
+        }
+        queue.offer(new PendingWrite(data, future));
+        if (failure != null) {
+            /* the channel has failed meanwhile, nobody would write the message */
+            fail(failure);
+        } else if (coalesceWindow > 0 && queued < coalesceLimit) {
+            scheduleFlush();
+        } else {
+            flush();
+        }
+        return future;
+    }
+
+    /**
+     * Returns the number of bytes queued but not yet written.
+     * */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Fails all the pending writes, further writes fail immediately.
+     * */
+    public void close() {
+        fail(new ClosedChannelException());
+    }
+
+    /**
+     * Flushes the queue once the coalescing window passes, unless a flush is scheduled already.
+     * A write in progress takes the queued messages anyway, the scheduled flush finds nothing to write then.
+     * */
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(() -> {
+                    flushScheduled.set(false);
+                    flush();
+                }, coalesceWindow, TimeUnit.MICROSECONDS);
+            } catch (RejectedExecutionException e) {
+                /* the runtime is shutting down */
+                flushScheduled.set(false);
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Starts a write unless one is already in progress.
+     * */
+    private void flush() {
+        while (writing.compareAndSet(false, true)) {
+            if (failure != null) {
+                failQueue(failure);
+                writing.set(false);
+                return;
+            }
+            if (fillBatch()) {
+                channel.write(batch, batchOffset, batchSize - batchOffset, 0L, TimeUnit.MILLISECONDS, null, writeHandler);
+                return;
+            }
+            writing.set(false);
+            /* re-check: a message might have been queued after the batch was filled */
+            if (queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the queued messages to the batch, returns false if there is nothing to write.
+     * */
+    private boolean fillBatch() {
+        batchOffset = 0;
+        batchSize = 0;
+        PendingWrite pending;
+        while (batchSize < MAX_BATCH && (pending = queue.poll()) != null) {
+            batch[batchSize] = pending.data;
+            batchWrites[batchSize] = pending;
+            batchSize++;
+        }
+        return batchSize > 0;
+    }
+
+    /**
+     * Fails the queued messages, called by any thread. The batch belongs to the owner of the writing flag:
+     * a write in progress fails the rest of its batch once it completes.
+     * */
+    private void fail(Throwable exc) {
+        failure = exc;
+        failQueue(exc);
+    }
+
+    private void failQueue(Throwable exc) {
+        PendingWrite pending;
+        while ((pending = queue.poll()) != null) {
+            dropped(pending.data.remaining());
+            pending.future.completeExceptionally(exc);
+        }
+    }
+
+    /**
+     * Fails the unwritten messages of the batch, called by the owner of the writing flag.
+     * */
+    private void failBatch(Throwable exc) {
+        for (int i = batchOffset; i < batchSize; i++) {
+            dropped(batch[i].remaining());
+            batchWrites[i].future.completeExceptionally(exc);
+            batch[i] = null;
+            batchWrites[i] = null;
+        }
+        batchOffset = batchSize;
+    }
+
+    /**
+     * The dropped messages leave the queue as well.
+     * */
+    private void dropped(int bytes) {
+        queuedBytes.addAndGet(-bytes);
+        if (metrics != null) {
+            metrics.onWriteQueueChanged(-bytes);
+        }
+    }
+
+    /**
+     * Completes the written messages and continues with the rest of the batch or the next one.
+     * */
+    private class WriteHandler implements CompletionHandler<Long, Void> {
+        @Override
+        public void completed(Long bytesWritten, Void attachment) {
+            queuedBytes.addAndGet(-bytesWritten);
+            if (metrics != null) {
+                metrics.onBytesWritten(bytesWritten);
+                metrics.onWriteQueueChanged(-bytesWritten);
+            }
+            while (batchOffset < batchSize && !batch[batchOffset].hasRemaining()) {
+                batchWrites[batchOffset].future.complete(null);
+                batch[batchOffset] = null;
+                batchWrites[batchOffset] = null;
+                batchOffset++;
+            }
+            if (failure != null) {
+                /* closed meanwhile */
+                failBatch(failure);
+                failQueue(failure);
+                writing.set(false);
+                return;
+            }
+            if (batchOffset < batchSize) {
+                /* partial write: continue with the remaining data */
+                channel.write(batch, batchOffset, batchSize - batchOffset, 0L, TimeUnit.MILLISECONDS, null, this);
+                return;
+            }
+            writing.set(false);
+            flush();
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            Throwable cause = failure;
+            if (cause == null) {
+                cause = exc instanceof IOException ? exc : new IOException("Failed to write the message", exc);
+                failure = cause;
+            }
+            failBatch(cause);
+            failQueue(cause);
+            writing.set(false);
+        }
+    }
+
+    private static class PendingWrite {
+        private final ByteBuffer data;
+        private final CompletableFuture<Void> future;
+
+        private PendingWrite(ByteBuffer data, CompletableFuture<Void> future) {
+            this.data = data;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.ivango.chat.client.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the tasks one at a time in the order they are submitted, on the threads of a shared executor.
+ * So many serial lanes share a few threads and a lane never occupies more than one of them.
+ * A lane runs at most a batch of tasks at once, then gives the thread to the other lanes.
+ * */
+public class SerialExecutor implements Executor {
+
+    private static final int MAX_BATCH = 64;
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** set while the lane is submitted to the executor or running */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::run);
+            } catch (RejectedExecutionException e) {
+                /* the runtime is shutting down, the tasks are dropped */
+                tasks.clear();
+                scheduled.set(false);
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            Runnable task;
+            for (int i = 0; i < MAX_BATCH && (task = tasks.poll()) != null; i++) {
+                task.run();
+            }
+        } finally {
+            scheduled.set(false);
+            /* re-check: a task might have been queued after the last poll */
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
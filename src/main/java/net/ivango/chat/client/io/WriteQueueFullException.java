@@ -0,0 +1,13 @@
+package net.ivango.chat.client.io;
+
+import java.io.IOException;
+
+/**
+ * Signals that the outbound queue has reached its high-water mark and the message was not accepted.
+ * */
+public class WriteQueueFullException extends IOException {
+
+    public WriteQueueFullException(String message) {
+        super(message);
+    }
+}
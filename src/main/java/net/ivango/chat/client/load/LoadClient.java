@@ -0,0 +1,155 @@
+package net.ivango.chat.client.load;
+
+import net.ivango.chat.client.ConnectionConfig;
+import net.ivango.chat.client.ConnectionState;
+import net.ivango.chat.client.HeadlessEventSink;
+import net.ivango.chat.client.NetworkController;
+import net.ivango.chat.client.ReceivedMessage;
+import net.ivango.chat.client.io.IoRuntime;
+import net.ivango.chat.client.metrics.LatencyHistogram;
+import net.ivango.chat.client.misc.*;
+import net.ivango.chat.common.responses.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A simulated user: a headless network controller sending the chat messages to random users.
+ * The send time is put in front of the message text, so the receiver measures the delivery latency.
+ * */
+class LoadClient implements UserListUpdateCallback, IncomingMessageCallback,
+        ServerTimeMessageCallback, ConnectionStateCallback, ErrorDialogCallback {
+
+    private static final char TIMESTAMP_SEPARATOR = '|';
+
+    private static Logger logger = LoggerFactory.getLogger(LoadClient.class);
+
+    private final String userName;
+    private final NetworkController controller;
+    private final LoadStats stats;
+    private final String padding;
+    /** latest user list, the receivers are picked from it */
+    private volatile List<User> users = Collections.emptyList();
+
+    LoadClient(int index, ConnectionConfig config, IoRuntime ioRuntime, LoadStats stats, int messageSize) {
+        this.userName = "load-" + index;
+        this.controller = new NetworkController(config, ioRuntime);
+        this.stats = stats;
+        char[] text = new char[messageSize];
+        Arrays.fill(text, 'x');
+        this.padding = new String(text);
+    }
+
+    CompletableFuture<Void> connect(String hostname, int port) {
+        long start = System.nanoTime();
+        return controller.connect(userName, hostname, port,
+                new HeadlessEventSink(this, this, this, this), this, stage -> {})
+            .whenComplete((ignored, e) -> {
+                if (e == null) {
+                    stats.connected.increment();
+                    stats.connectLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                } else {
+                    stats.connectFailed.increment();
+                    logger.warn(userName + " failed to connect", e);
+                }
+            });
+    }
+
+    /**
+     * Sends a message, either a broadcast or to a random user other than this one.
+     * */
+    void sendMessage(double broadcastRatio) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean broadcast = random.nextDouble() < broadcastRatio;
+        String receiver = "";
+        if (!broadcast) {
+            List<User> candidates = users;
+            if (candidates.isEmpty()) {
+                return;
+            }
+            User user = candidates.get(random.nextInt(candidates.size()));
+            if (userName.equals(user.getUserName())) {
+                return;
+            }
+            receiver = user.getAddress();
+        }
+
+        long start = System.nanoTime();
+        stats.sent.increment();
+        controller.sendMessage(receiver, start + String.valueOf(TIMESTAMP_SEPARATOR) + padding, broadcast)
+            .whenComplete((ignored, e) -> {
+                if (e == null) {
+                    stats.sendLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                } else {
+                    stats.sendFailed.increment();
+                }
+            });
+    }
+
+    /**
+     * Returns the round-trip times of the requests sent by the controller, e.g. the user list polling.
+     * */
+    Map<String, LatencyHistogram> getRequestLatencies() {
+        return controller.getRequestLatencies();
+    }
+
+    void close() {
+        controller.onApplicationClose();
+    }
+
+    @Override
+    public void onMessageReceived(List<ReceivedMessage> messages) {
+        long now = System.nanoTime();
+        for (ReceivedMessage message : messages) {
+            String text = message.getMessage().getMessage();
+            int separator = text == null ? -1 : text.indexOf(TIMESTAMP_SEPARATOR);
+            if (separator > 0) {
+                stats.delivered.increment();
+                stats.deliveryLatency.record(
+                        TimeUnit.NANOSECONDS.toMicros(now - Long.parseLong(text.substring(0, separator))));
+            }
+        }
+    }
+
+    @Override
+    public void onUserListUpdated(List<User> users) {
+        this.users = users;
+    }
+
+    @Override
+    public void onUserListChanged(List<User> joined, List<User> left) {
+        List<User> updated = new ArrayList<>(users);
+        updated.removeAll(left);
+        updated.addAll(joined);
+        this.users = updated;
+    }
+
+    @Override
+    public void onServerTimeReceived(long utcTimestamp) {}
+
+    @Override
+    public void onConnectionStateChanged(ConnectionState state) {
+        if (state == ConnectionState.RECONNECTING) {
+            stats.reconnects.increment();
+        }
+    }
+
+    @Override
+    public void showErrorDialog(String errorMessage, Exception ex) {
+        stats.errors.increment();
+        logger.warn(userName + ": " + errorMessage, ex);
+    }
+
+    @Override
+    public void showFailedValidationDialog(String errorMessage) {
+        showErrorDialog(errorMessage, null);
+    }
+}
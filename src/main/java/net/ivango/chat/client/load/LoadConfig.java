@@ -0,0 +1,80 @@
+package net.ivango.chat.client.load;
+
+/**
+ * Settings of a load test, read from the "chat.load.*" system properties.
+ * */
+public class LoadConfig {
+
+    /** server to load, the stand-in server is started in the same JVM unless specified */
+    private String host;
+    private int port;
+    /** number of the simulated clients */
+    private int clients = 1000;
+    /** time the clients connect within, spreads the logins evenly */
+    private long rampUp = 10000;
+    /** duration of the measurement after the ramp up */
+    private long duration = 60000;
+    /** chat messages sent per client per second */
+    private double messageRate = 1.0;
+    /** share of the broadcast messages, the rest is sent to a random user from the roster */
+    private double broadcastRatio = 0.0;
+    /** length of the message text */
+    private int messageSize = 64;
+    /** I/O threads shared by all the client connections */
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    /** max users returned by the stand-in server in a single user list */
+    private int rosterLimit = 100;
+    /** interval between the intermediate reports */
+    private long reportInterval = 5000;
+
+    public static LoadConfig fromSystemProperties() {
+        LoadConfig config = new LoadConfig();
+        config.setHost(System.getProperty("chat.load.host"));
+        config.setPort(Integer.getInteger("chat.load.port", config.getPort()));
+        config.setClients(Integer.getInteger("chat.load.clients", config.getClients()));
+        config.setRampUp(Long.getLong("chat.load.rampUp", config.getRampUp()));
+        config.setDuration(Long.getLong("chat.load.duration", config.getDuration()));
+        config.setMessageRate(Double.parseDouble(
+                System.getProperty("chat.load.messageRate", String.valueOf(config.getMessageRate()))));
+        config.setBroadcastRatio(Double.parseDouble(
+                System.getProperty("chat.load.broadcastRatio", String.valueOf(config.getBroadcastRatio()))));
+        config.setMessageSize(Integer.getInteger("chat.load.messageSize", config.getMessageSize()));
+        config.setIoThreads(Integer.getInteger("chat.load.ioThreads", config.getIoThreads()));
+        config.setRosterLimit(Integer.getInteger("chat.load.rosterLimit", config.getRosterLimit()));
+        config.setReportInterval(Long.getLong("chat.load.reportInterval", config.getReportInterval()));
+        return config;
+    }
+
+    public String getHost() { return host; }
+    public void setHost(String host) { this.host = host; }
+
+    public int getPort() { return port; }
+    public void setPort(int port) { this.port = port; }
+
+    public int getClients() { return clients; }
+    public void setClients(int clients) { this.clients = clients; }
+
+    public long getRampUp() { return rampUp; }
+    public void setRampUp(long rampUp) { this.rampUp = rampUp; }
+
+    public long getDuration() { return duration; }
+    public void setDuration(long duration) { this.duration = duration; }
+
+    public double getMessageRate() { return messageRate; }
+    public void setMessageRate(double messageRate) { this.messageRate = messageRate; }
+
+    public double getBroadcastRatio() { return broadcastRatio; }
+    public void setBroadcastRatio(double broadcastRatio) { this.broadcastRatio = broadcastRatio; }
+
+    public int getMessageSize() { return messageSize; }
+    public void setMessageSize(int messageSize) { this.messageSize = messageSize; }
+
+    public int getIoThreads() { return ioThreads; }
+    public void setIoThreads(int ioThreads) { this.ioThreads = ioThreads; }
+
+    public int getRosterLimit() { return rosterLimit; }
+    public void setRosterLimit(int rosterLimit) { this.rosterLimit = rosterLimit; }
+
+    public long getReportInterval() { return reportInterval; }
+    public void setReportInterval(long reportInterval) { this.reportInterval = reportInterval; }
+}
@@ -0,0 +1,185 @@
+package net.ivango.chat.client.load;
+
+import net.ivango.chat.client.ConnectionConfig;
+import net.ivango.chat.client.io.IoRuntime;
+import net.ivango.chat.client.metrics.LatencyHistogram;
+import org.apache.log4j.LogManager;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simulates many chat clients in a single JVM to find the scaling limits.
+ * All the clients share one I/O runtime, so the number of threads does not depend on the number of clients.
+ * The clients connect evenly within the ramp up, then send the messages at the configured rate,
+ * the latency percentiles and the throughput are reported periodically and at the end.
+ * Settings are read from the "chat.load.*" (see {@link LoadConfig}) and "chat.client.*" system properties.
+ * */
+public class LoadGenerator {
+
+    private final LoadConfig config;
+    private final ConnectionConfig connectionConfig;
+    private final LoadStats stats = new LoadStats();
+    private final List<LoadClient> clients = new ArrayList<>();
+    private final List<ScheduledFuture<?>> senders = new CopyOnWriteArrayList<>();
+
+    private IoRuntime clientRuntime;
+    private AsynchronousChannelGroup serverGroup;
+    private ScheduledExecutorService driver;
+    private StandInServer server;
+    /** measurement start, the traffic during the ramp up is not counted */
+    private volatile long measurementStart;
+    private long lastReportTime, lastSent, lastDelivered;
+
+    public LoadGenerator(LoadConfig config, ConnectionConfig connectionConfig) {
+        this.config = config;
+        this.connectionConfig = connectionConfig;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(LoadConfig.fromSystemProperties(), ConnectionConfig.fromSystemProperties()).run();
+        /* flushes the events queued by the async appender */
+        LogManager.shutdown();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        clientRuntime = new IoRuntime(config.getIoThreads(), 1);
+        driver = Executors.newScheduledThreadPool(2, threadFactory("load-driver"));
+
+        String host = config.getHost();
+        int port = config.getPort();
+        if (host == null) {
+            serverGroup = AsynchronousChannelGroup.withFixedThreadPool(config.getIoThreads(), threadFactory("stand-in-io"));
+            server = new StandInServer(serverGroup, config.getRosterLimit());
+            InetSocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            host = address.getHostString();
+            port = address.getPort();
+            System.out.println("Stand-in server started at " + host + ":" + port);
+        }
+
+        System.out.printf("Connecting %d clients within %d ms, %.2f messages/s per client, %d chars, %.0f%% broadcasts%n",
+                config.getClients(), config.getRampUp(), config.getMessageRate(),
+                config.getMessageSize(), config.getBroadcastRatio() * 100);
+        try {
+            rampUp(host, port);
+            measure();
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Connects the clients evenly within the ramp up, every client starts sending once connected.
+     * */
+    private void rampUp(String host, int port) throws InterruptedException {
+        long periodMicros = (long) (1_000_000 / config.getMessageRate());
+        long spacingMicros = TimeUnit.MILLISECONDS.toMicros(config.getRampUp()) / Math.max(1, config.getClients());
+        CountDownLatch attempted = new CountDownLatch(config.getClients());
+        for (int i = 0; i < config.getClients(); i++) {
+            LoadClient client = new LoadClient(i, connectionConfig, clientRuntime, stats, config.getMessageSize());
+            clients.add(client);
+            driver.schedule(() -> client.connect(host, port).whenComplete((ignored, e) -> {
+                attempted.countDown();
+                if (e == null && config.getMessageRate() > 0) {
+                    long initialDelay = ThreadLocalRandom.current().nextLong(periodMicros);
+                    senders.add(driver.scheduleAtFixedRate(() -> client.sendMessage(config.getBroadcastRatio()),
+                            initialDelay, periodMicros, TimeUnit.MICROSECONDS));
+                }
+            }), i * spacingMicros, TimeUnit.MICROSECONDS);
+        }
+        long connectTimeout = connectionConfig.getResolveTimeout() + connectionConfig.getConnectTimeout()
+                + 2 * connectionConfig.getHandshakeTimeout();
+        attempted.await(config.getRampUp() + connectTimeout, TimeUnit.MILLISECONDS);
+        System.out.printf("Ramp up done: %d connected, %d failed, connect latency %s%n",
+                stats.connected.sum(), stats.connectFailed.sum(), stats.connectLatency.summary());
+    }
+
+    /**
+     * Runs the traffic for the configured duration, reports the intermediate and the final results.
+     * */
+    private void measure() throws InterruptedException {
+        stats.resetTraffic();
+        measurementStart = lastReportTime = System.nanoTime();
+        lastSent = lastDelivered = 0;
+        ScheduledFuture<?> reporter = driver.scheduleAtFixedRate(this::reportInterval,
+                config.getReportInterval(), config.getReportInterval(), TimeUnit.MILLISECONDS);
+        TimeUnit.MILLISECONDS.sleep(config.getDuration());
+
+        reporter.cancel(false);
+        for (ScheduledFuture<?> sender : senders) {
+            sender.cancel(false);
+        }
+        double seconds = (System.nanoTime() - measurementStart) / 1e9;
+        /* let the messages in flight arrive */
+        TimeUnit.SECONDS.sleep(1);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Runtime runtime = Runtime.getRuntime();
+        System.out.println("=== Results ===");
+        System.out.printf("clients:    %d connected, %d failed, %d reconnects, %d errors%n",
+                stats.connected.sum(), stats.connectFailed.sum(), stats.reconnects.sum(), stats.errors.sum());
+        System.out.printf("throughput: %.1f sent/s, %.1f delivered/s, %d send failures%n",
+                stats.sent.sum() / seconds, stats.delivered.sum() / seconds, stats.sendFailed.sum());
+        System.out.println("connect:    " + stats.connectLatency.summary());
+        System.out.println("send:       " + stats.sendLatency.summary());
+        System.out.println("delivery:   " + stats.deliveryLatency.summary());
+        Map<String, LatencyHistogram> requestLatencies = new TreeMap<>();
+        for (LoadClient client : clients) {
+            for (Map.Entry<String, LatencyHistogram> entry : client.getRequestLatencies().entrySet()) {
+                requestLatencies.computeIfAbsent(entry.getKey(), type -> new LatencyHistogram()).add(entry.getValue());
+            }
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : requestLatencies.entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue().summary());
+        }
+        System.out.println("metrics:    " + clientRuntime.getMetrics().summary());
+        System.out.printf("threads:    %d live, %d peak; heap used %d MB%n",
+                threads.getThreadCount(), threads.getPeakThreadCount(),
+                (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+    }
+
+    private void reportInterval() {
+        long now = System.nanoTime();
+        long sent = stats.sent.sum(), delivered = stats.delivered.sum();
+        double seconds = (now - lastReportTime) / 1e9;
+        System.out.printf("[%3ds] %.1f sent/s, %.1f delivered/s, delivery p50=%d p99=%d us%n",
+                TimeUnit.NANOSECONDS.toSeconds(now - measurementStart),
+                (sent - lastSent) / seconds, (delivered - lastDelivered) / seconds,
+                stats.deliveryLatency.getPercentile(0.5), stats.deliveryLatency.getPercentile(0.99));
+        lastReportTime = now;
+        lastSent = sent;
+        lastDelivered = delivered;
+    }
+
+    private void shutdown() throws IOException {
+        driver.shutdownNow();
+        for (LoadClient client : clients) {
+            client.close();
+        }
+        if (server != null) {
+            server.stop();
+            serverGroup.shutdownNow();
+        }
+        clientRuntime.shutdown();
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
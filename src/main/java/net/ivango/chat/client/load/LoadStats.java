@@ -0,0 +1,36 @@
+package net.ivango.chat.client.load;
+
+import net.ivango.chat.client.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies shared by all the simulated clients.
+ * */
+public class LoadStats {
+
+    final LatencyHistogram connectLatency = new LatencyHistogram();
+    /** time until the message is written to the socket */
+    final LatencyHistogram sendLatency = new LatencyHistogram();
+    /** time from sending until the receiver gets the message */
+    final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    final LongAdder connected = new LongAdder();
+    final LongAdder connectFailed = new LongAdder();
+    final LongAdder sent = new LongAdder();
+    final LongAdder sendFailed = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder reconnects = new LongAdder();
+    final LongAdder errors = new LongAdder();
+
+    /**
+     * Starts a new measurement of the message traffic, the connection statistics are kept.
+     * */
+    void resetTraffic() {
+        sendLatency.reset();
+        deliveryLatency.reset();
+        sent.reset();
+        sendFailed.reset();
+        delivered.reset();
+    }
+}
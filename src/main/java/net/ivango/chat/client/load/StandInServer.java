@@ -0,0 +1,372 @@
+package net.ivango.chat.client.load;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.ivango.chat.client.io.*;
+import net.ivango.chat.client.protocol.CodecNegotiationRequest;
+import net.ivango.chat.client.protocol.CodecNegotiationResponse;
+import net.ivango.chat.client.protocol.FileOffer;
+import net.ivango.chat.client.protocol.FileOfferResponse;
+import net.ivango.chat.client.protocol.FileStreamRequest;
+import net.ivango.chat.client.protocol.ServerCapabilities;
+import net.ivango.chat.common.requests.*;
+import net.ivango.chat.common.responses.GetTimeResponse;
+import net.ivango.chat.common.responses.GetUsersResponse;
+import net.ivango.chat.common.responses.IncomingMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Minimal chat server used by the load tests: logs the users in, answers the time and user list requests
+ * and relays the chat messages. Advertises the binary codec and the compressed ones, so every wire format can be loaded.
+ * Relays the file offers as well and pipes the data connection of the sender into the one of the receiver.
+ * The common message classes are read and built on the field level with Gson, as the JSONMapper does.
+ * */
+public class StandInServer {
+
+    private static final long WRITE_HIGH_WATER_MARK = 64 * 1024 * 1024;
+
+    private static Logger logger = LoggerFactory.getLogger(StandInServer.class);
+    private static final Gson gson = new Gson();
+
+    private final AsynchronousChannelGroup channelGroup;
+    /** max users in a single user list, a real roster of thousands would dominate the traffic */
+    private final int rosterLimit;
+    private final BufferPool bufferPool = new BufferPool(8192, 1024);
+    /** logged in connections by the user address */
+    private final ConcurrentMap<String, Connection> connections = new ConcurrentHashMap<>();
+    /** data connections waiting for the other side of their transfer by the transfer id */
+    private final ConcurrentMap<String, DataStream> dataStreams = new ConcurrentHashMap<>();
+    private AsynchronousServerSocketChannel serverChannel;
+
+    public StandInServer(AsynchronousChannelGroup channelGroup, int rosterLimit) {
+        this.channelGroup = channelGroup;
+        this.rosterLimit = rosterLimit;
+    }
+
+    /**
+     * Starts accepting the connections, returns the address the server is bound to.
+     * */
+    public InetSocketAddress start(InetSocketAddress bindAddress) throws IOException {
+        serverChannel = AsynchronousServerSocketChannel.open(channelGroup).bind(bindAddress, 1024);
+        serverChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            @Override
+            public void completed(AsynchronousSocketChannel channel, Void attachment) {
+                serverChannel.accept(null, this);
+                try {
+                    new Connection(channel).start();
+                } catch (IOException e) {
+                    logger.warn("Failed to accept the connection", e);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                if (serverChannel.isOpen()) {
+                    logger.error("Failed to accept the connection", exc);
+                }
+            }
+        });
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    public void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the server channel", e);
+        }
+        for (Connection connection : connections.values()) {
+            connection.close();
+        }
+    }
+
+    private class Connection implements CompletionHandler<Integer, Void> {
+        private final AsynchronousSocketChannel channel;
+        private final String address;
+        private final MessageWriter writer;
+        private final Object sendLock = new Object();
+        private MessageCodec inboundCodec = new JsonCodec(), outboundCodec = new JsonCodec();
+        private FrameDecoder frameDecoder = inboundCodec.newFrameDecoder(bufferPool);
+        /** the inbound format changes right after the negotiation request */
+        private MessageCodec pendingInboundCodec;
+        /** set once the connection turns out to be a data connection, no messages follow the request */
+        private FileStreamRequest streamRequest;
+        private String userName;
+
+        private Connection(AsynchronousSocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.address = channel.getRemoteAddress().toString();
+            this.writer = new MessageWriter(channel, WRITE_HIGH_WATER_MARK);
+        }
+
+        private void start() {
+            channel.read(frameDecoder.getReadBuffer(), null, this);
+        }
+
+        @Override
+        public void completed(Integer bytesRead, Void attachment) {
+            if (bytesRead == -1) {
+                close();
+                return;
+            }
+            try {
+                while (!frameDecoder.decode(this::onFrame)) {
+                    if (streamRequest != null) {
+                        startStream();
+                        return;
+                    }
+                    FrameDecoder next = pendingInboundCodec.newFrameDecoder(bufferPool);
+                    frameDecoder.transferTo(next);
+                    frameDecoder.release();
+                    frameDecoder = next;
+                    inboundCodec = pendingInboundCodec;
+                    pendingInboundCodec = null;
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to decode the input of " + address, e);
+                close();
+                return;
+            }
+            channel.read(frameDecoder.getReadBuffer(), null, this);
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            close();
+        }
+
+        private boolean onFrame(ByteBuffer frame) {
+            try {
+                Message message = inboundCodec.decode(frame);
+                if (message instanceof FileStreamRequest && userName == null) {
+                    streamRequest = (FileStreamRequest) message;
+                    return false;
+                }
+                onMessage(message);
+            } catch (MalformedMessageException | ClassNotFoundException e) {
+                logger.warn("Failed to decode a message of " + address, e);
+            }
+            return pendingInboundCodec == null;
+        }
+
+        /**
+         * Pairs the data connection with the other side of the transfer, the data starts right after the request.
+         * */
+        private void startStream() {
+            ByteBuffer received = frameDecoder.takeRemaining();
+            frameDecoder.release();
+            DataStream stream = dataStreams.computeIfAbsent(streamRequest.getTransferId(), id -> new DataStream(id));
+            if (streamRequest.isUpload()) {
+                stream.setUpload(channel, received);
+            } else {
+                stream.setDownload(channel);
+            }
+        }
+
+        private void onMessage(Message message) {
+            if (message instanceof LoginRequest) {
+                userName = gson.toJsonTree(message).getAsJsonObject().get("userName").getAsString();
+                connections.put(address, this);
+                send(new ServerCapabilities(Arrays.asList(
+                        Codecs.CAPABILITY_PREFIX + BinaryCodec.NAME,
+                        Codecs.CAPABILITY_PREFIX + BinaryCodec.NAME + DeflateCodec.SUFFIX,
+                        Codecs.CAPABILITY_PREFIX + JsonCodec.NAME + DeflateCodec.SUFFIX,
+                        ServerCapabilities.FILE_TRANSFER)));
+            } else if (message instanceof GetTimeRequest) {
+                JsonObject response = new JsonObject();
+                response.addProperty("utcServerTime", System.currentTimeMillis());
+                send(gson.fromJson(response, GetTimeResponse.class));
+            } else if (message instanceof GetUsersRequest) {
+                send(gson.fromJson(usersResponse(), GetUsersResponse.class));
+            } else if (message instanceof SendMessageRequest) {
+                relay(gson.toJsonTree(message).getAsJsonObject());
+            } else if (message instanceof FileOffer) {
+                relayFileMessage(message, ((FileOffer) message).getReceiver());
+            } else if (message instanceof FileOfferResponse) {
+                relayFileMessage(message, ((FileOfferResponse) message).getReceiver());
+            } else if (message instanceof CodecNegotiationRequest) {
+                String codecName = ((CodecNegotiationRequest) message).getCodec();
+                MessageCodec codec = Codecs.create(codecName);
+                if (codec != null) {
+                    synchronized (sendLock) {
+                        send(new CodecNegotiationResponse(codecName));
+                        outboundCodec = Codecs.create(codecName);
+                    }
+                    pendingInboundCodec = codec;
+                }
+            } else {
+                logger.warn("Unexpected message " + message.getClass().getName() + " from " + address);
+            }
+        }
+
+        /**
+         * Returns up to the roster limit of the logged in users.
+         * */
+        private JsonObject usersResponse() {
+            JsonArray users = new JsonArray();
+            for (Connection connection : connections.values()) {
+                if (users.size() >= rosterLimit) {
+                    break;
+                }
+                JsonObject user = new JsonObject();
+                user.addProperty("userName", connection.userName);
+                user.addProperty("address", connection.address);
+                users.add(user);
+            }
+            JsonObject response = new JsonObject();
+            response.add("users", users);
+            return response;
+        }
+
+        /**
+         * Passes the chat message to its receiver, or to everybody but the sender.
+         * */
+        private void relay(JsonObject request) {
+            boolean broadcast = request.get("broadcast").getAsBoolean();
+            JsonObject incoming = new JsonObject();
+            incoming.addProperty("from", address);
+            incoming.addProperty("senderName", userName);
+            incoming.add("message", request.get("message"));
+            incoming.addProperty("broadcast", broadcast);
+            IncomingMessage message = gson.fromJson(incoming, IncomingMessage.class);
+
+            if (broadcast) {
+                for (Connection connection : connections.values()) {
+                    if (connection != this) {
+                        connection.send(message);
+                    }
+                }
+            } else {
+                Connection receiver = connections.get(request.get("receiver").getAsString());
+                if (receiver != null) {
+                    receiver.send(message);
+                }
+            }
+        }
+
+        /**
+         * Passes the file offer or the answer to its receiver, stamped with the sender.
+         * */
+        private void relayFileMessage(Message message, String receiverAddress) {
+            JsonObject relayed = gson.toJsonTree(message).getAsJsonObject();
+            relayed.addProperty("from", address);
+            relayed.addProperty("senderName", userName);
+            Connection receiver = connections.get(receiverAddress);
+            if (receiver != null) {
+                receiver.send(gson.fromJson(relayed, message.getClass()));
+            }
+        }
+
+        private void send(Message message) {
+            synchronized (sendLock) {
+                writer.write(outboundCodec.encode(message));
+            }
+        }
+
+        private void close() {
+            connections.remove(address, this);
+            writer.close();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the connection of " + address, e);
+            }
+        }
+    }
+
+    /**
+     * Both data connections of a transfer: the bytes read from the upload are written to the download,
+     * one buffer at a time, so the slower side holds the other back. The download is closed once the upload ends.
+     * */
+    private class DataStream {
+        private final String transferId;
+        private AsynchronousSocketChannel upload, download;
+        /** the data received along with the upload request */
+        private ByteBuffer buffer;
+
+        private DataStream(String transferId) {
+            this.transferId = transferId;
+        }
+
+        private synchronized void setUpload(AsynchronousSocketChannel upload, ByteBuffer received) {
+            this.upload = upload;
+            this.buffer = received;
+            startIfPaired();
+        }
+
+        private synchronized void setDownload(AsynchronousSocketChannel download) {
+            this.download = download;
+            startIfPaired();
+        }
+
+        private void startIfPaired() {
+            if (upload != null && download != null) {
+                dataStreams.remove(transferId, this);
+                write();
+            }
+        }
+
+        private void write() {
+            if (!buffer.hasRemaining()) {
+                read();
+                return;
+            }
+            download.write(buffer, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer written, Void attachment) {
+                    write();
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    close();
+                }
+            });
+        }
+
+        private void read() {
+            if (buffer.capacity() < 64 * 1024) {
+                buffer = ByteBuffer.allocateDirect(64 * 1024);
+            }
+            buffer.clear();
+            upload.read(buffer, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer read, Void attachment) {
+                    if (read < 0) {
+                        close();
+                        return;
+                    }
+                    buffer.flip();
+                    write();
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    close();
+                }
+            });
+        }
+
+        private void close() {
+            try {
+                upload.close();
+                download.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the data connections of " + transferId, e);
+            }
+        }
+    }
+}
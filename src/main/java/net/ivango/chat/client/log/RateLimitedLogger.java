@@ -0,0 +1,110 @@
+package net.ivango.chat.client.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logger of the warnings and the errors of the network hot paths, e.g. the read failures of every reconnect attempt.
+ * The events are grouped by category: at most a burst of them is logged per interval and category,
+ * and an event repeating the previous one of its category is suppressed within the interval.
+ * The number of the suppressed events is logged along with the first event of the next interval.
+ * The messages are SLF4J patterns formatted only once logged, so a suppressed or disabled event allocates nothing.
+ * The interval and the burst are read from "chat.client.logInterval" (ms) and "chat.client.logBurst".
+ * */
+public class RateLimitedLogger {
+
+    private static final long DEFAULT_INTERVAL = 10_000;
+    private static final int DEFAULT_BURST = 5;
+
+    private final Logger logger;
+    private final long intervalNanos;
+    private final int burst;
+    private final ConcurrentMap<String, Category> categories = new ConcurrentHashMap<>();
+
+    public RateLimitedLogger(Class<?> type) {
+        this(LoggerFactory.getLogger(type),
+                Long.getLong("chat.client.logInterval", DEFAULT_INTERVAL),
+                Integer.getInteger("chat.client.logBurst", DEFAULT_BURST));
+    }
+
+    public RateLimitedLogger(Logger logger, long intervalMillis, int burst) {
+        this.logger = logger;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.burst = burst;
+    }
+
+    public void warn(String category, String format, Throwable e) {
+        if (logger.isWarnEnabled() && admit(category, format, e)) {
+            logger.warn(format, e);
+        }
+    }
+
+    public void warn(String category, String format, Object arg, Throwable e) {
+        if (logger.isWarnEnabled() && admit(category, format, e)) {
+            logger.warn(format, arg, e);
+        }
+    }
+
+    public void error(String category, String format, Throwable e) {
+        if (logger.isErrorEnabled() && admit(category, format, e)) {
+            logger.error(format, e);
+        }
+    }
+
+    public void error(String category, String format, Object arg, Throwable e) {
+        if (logger.isErrorEnabled() && admit(category, format, e)) {
+            logger.error(format, arg, e);
+        }
+    }
+
+    /**
+     * Returns true if the event is to be logged, counts it as suppressed otherwise.
+     * */
+    private boolean admit(String category, String format, Throwable e) {
+        Category state = categories.get(category);
+        if (state == null) {
+            state = categories.computeIfAbsent(category, name -> new Category());
+        }
+        Class<?> failure = e == null ? null : e.getClass();
+        long suppressed;
+        synchronized (state) {
+            long now = System.nanoTime();
+            if (now - state.windowStart >= intervalNanos) {
+                state.windowStart = now;
+                state.logged = 0;
+                state.lastFormat = null;
+                state.lastFailure = null;
+            }
+            boolean repeated = format.equals(state.lastFormat) && failure == state.lastFailure;
+            if (repeated || state.logged >= burst) {
+                state.suppressed++;
+                return false;
+            }
+            state.logged++;
+            state.lastFormat = format;
+            state.lastFailure = failure;
+            suppressed = state.suppressed;
+            state.suppressed = 0;
+        }
+        if (suppressed > 0) {
+            logger.warn("{} more '{}' event(s) suppressed", suppressed, category);
+        }
+        return true;
+    }
+
+    /**
+     * The events of a category in the current interval, guarded by itself.
+     * */
+    private static class Category {
+        private long windowStart = System.nanoTime();
+        private int logged;
+        private long suppressed;
+        /** the latest logged event, its repeats are suppressed */
+        private String lastFormat;
+        private Class<?> lastFailure;
+    }
+}
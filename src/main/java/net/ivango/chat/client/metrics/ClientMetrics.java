@@ -0,0 +1,157 @@
+package net.ivango.chat.client.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the connections running on the same I/O runtime.
+ * Updated by the I/O and the Java FX threads without locking: the counters are striped,
+ * so the hot paths pay a few nanoseconds per update.
+ * Exposed over JMX and dumped to a file by the {@link MetricsReporter}.
+ * */
+public class ClientMetrics implements ClientMetricsMXBean {
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    /** socket writes, fewer than the sent messages when they are coalesced */
+    private final LongAdder socketWrites = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> messagesIn = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> messagesOut = new ConcurrentHashMap<>();
+
+    /** time to map a frame to a message */
+    private final LatencyHistogram decodeTime = new LatencyHistogram();
+    /** time the events wait for the Java FX pulse which shows them */
+    private final LatencyHistogram dispatchLag = new LatencyHistogram();
+    /** estimated time from the server sending a message until it is shown */
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    /** outbound bytes queued but not yet written, summed over the connections */
+    private final AtomicLong writeQueueBytes = new AtomicLong();
+    private final AtomicLong maxWriteQueueBytes = new AtomicLong();
+
+    private final LongAdder connectionLosses = new LongAdder();
+    private final LongAdder reconnectAttempts = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    public void onBytesRead(long bytes) { bytesIn.add(bytes); }
+
+    /**
+     * Called once per completed socket write.
+     * */
+    public void onBytesWritten(long bytes) {
+        bytesOut.add(bytes);
+        socketWrites.increment();
+    }
+
+    public void onMessageReceived(Class<?> type) { counterOf(messagesIn, type).increment(); }
+
+    public void onMessageSent(Class<?> type) { counterOf(messagesOut, type).increment(); }
+
+    public void onDecoded(long nanos) { decodeTime.record(nanos / 1000); }
+
+    public void onDispatched(long lagNanos) { dispatchLag.record(lagNanos / 1000); }
+
+    public void onDelivered(long latencyNanos) { deliveryLatency.record(latencyNanos / 1000); }
+
+    /**
+     * Adjusts the outbound queue size by the given number of bytes, negative once written or dropped.
+     * */
+    public void onWriteQueueChanged(long delta) {
+        long queued = writeQueueBytes.addAndGet(delta);
+        if (delta > 0 && queued > maxWriteQueueBytes.get()) {
+            maxWriteQueueBytes.accumulateAndGet(queued, Math::max);
+        }
+    }
+
+    public void onConnectionLost() { connectionLosses.increment(); }
+
+    public void onReconnectAttempt() { reconnectAttempts.increment(); }
+
+    public void onReconnected() { reconnects.increment(); }
+
+    @Override
+    public long getBytesIn() { return bytesIn.sum(); }
+
+    @Override
+    public long getBytesOut() { return bytesOut.sum(); }
+
+    @Override
+    public long getSocketWrites() { return socketWrites.sum(); }
+
+    @Override
+    public Map<String, Long> getMessagesIn() { return snapshotOf(messagesIn); }
+
+    @Override
+    public Map<String, Long> getMessagesOut() { return snapshotOf(messagesOut); }
+
+    @Override
+    public LatencySnapshot getDecodeTime() { return new LatencySnapshot(decodeTime); }
+
+    @Override
+    public LatencySnapshot getDispatchLag() { return new LatencySnapshot(dispatchLag); }
+
+    @Override
+    public LatencySnapshot getDeliveryLatency() { return new LatencySnapshot(deliveryLatency); }
+
+    @Override
+    public long getWriteQueueBytes() { return writeQueueBytes.get(); }
+
+    @Override
+    public long getMaxWriteQueueBytes() { return maxWriteQueueBytes.get(); }
+
+    @Override
+    public long getConnectionLosses() { return connectionLosses.sum(); }
+
+    @Override
+    public long getReconnectAttempts() { return reconnectAttempts.sum(); }
+
+    @Override
+    public long getReconnects() { return reconnects.sum(); }
+
+    /**
+     * Clears the histograms and the queue size peak, the counters keep growing.
+     * */
+    @Override
+    public void resetLatencies() {
+        decodeTime.reset();
+        dispatchLag.reset();
+        deliveryLatency.reset();
+        maxWriteQueueBytes.set(writeQueueBytes.get());
+    }
+
+    /**
+     * Returns all the values as a single line, e.g. for the metrics file.
+     * */
+    public String summary() {
+        return "bytesIn=" + getBytesIn()
+                + " bytesOut=" + getBytesOut()
+                + " socketWrites=" + getSocketWrites()
+                + " messagesIn=" + getMessagesIn()
+                + " messagesOut=" + getMessagesOut()
+                + " writeQueueBytes=" + getWriteQueueBytes()
+                + " maxWriteQueueBytes=" + getMaxWriteQueueBytes()
+                + " connectionLosses=" + getConnectionLosses()
+                + " reconnectAttempts=" + getReconnectAttempts()
+                + " reconnects=" + getReconnects()
+                + " decodeTime=[" + decodeTime.summary() + "]"
+                + " dispatchLag=[" + dispatchLag.summary() + "]"
+                + " deliveryLatency=[" + deliveryLatency.summary() + "]";
+    }
+
+    private static LongAdder counterOf(ConcurrentMap<String, LongAdder> counters, Class<?> type) {
+        String name = type.getSimpleName();
+        /* get first: computeIfAbsent locks the bin even if the counter exists */
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, ignored -> new LongAdder());
+    }
+
+    private static Map<String, Long> snapshotOf(ConcurrentMap<String, LongAdder> counters) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        return snapshot;
+    }
+}
@@ -0,0 +1,34 @@
+package net.ivango.chat.client.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ClientMetrics}, e.g. for jconsole or VisualVM.
+ * The latencies are in microseconds.
+ * */
+public interface ClientMetricsMXBean {
+
+    long getBytesIn();
+    long getBytesOut();
+    /** socket writes, fewer than the sent messages when they are coalesced */
+    long getSocketWrites();
+
+    /** received messages by the message type */
+    Map<String, Long> getMessagesIn();
+    /** sent messages by the message type */
+    Map<String, Long> getMessagesOut();
+
+    LatencySnapshot getDecodeTime();
+    LatencySnapshot getDispatchLag();
+    /** estimated time from the server sending a message until it is shown */
+    LatencySnapshot getDeliveryLatency();
+
+    long getWriteQueueBytes();
+    long getMaxWriteQueueBytes();
+
+    long getConnectionLosses();
+    long getReconnectAttempts();
+    long getReconnects();
+
+    void resetLatencies();
+}
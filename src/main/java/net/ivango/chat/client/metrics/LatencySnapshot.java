@@ -0,0 +1,27 @@
+package net.ivango.chat.client.metrics;
+
+/**
+ * Percentiles of a {@link LatencyHistogram} at a point in time, in microseconds.
+ * Shown as a composite value over JMX.
+ * */
+public class LatencySnapshot {
+
+    private final long count, p50, p90, p99, max;
+    private final double mean;
+
+    LatencySnapshot(LatencyHistogram histogram) {
+        this.count = histogram.getCount();
+        this.mean = histogram.getMean();
+        this.p50 = histogram.getPercentile(0.5);
+        this.p90 = histogram.getPercentile(0.9);
+        this.p99 = histogram.getPercentile(0.99);
+        this.max = histogram.getMax();
+    }
+
+    public long getCount() { return count; }
+    public double getMean() { return mean; }
+    public long getP50() { return p50; }
+    public long getP90() { return p90; }
+    public long getP99() { return p99; }
+    public long getMax() { return max; }
+}
@@ -0,0 +1,121 @@
+package net.ivango.chat.client.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the client metrics: registers them as an MBean and appends a summary line to a local file periodically.
+ * The file is written by a thread of its own, as the I/O runtime threads must not block on the disk.
+ * Once the file exceeds the size limit it is renamed to "*.1", so at most two files are kept.
+ * */
+public class MetricsReporter {
+
+    public static final String OBJECT_NAME = "net.ivango.chat.client:type=ClientMetrics";
+    private static final long MAX_FILE_SIZE = 1024 * 1024;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final ClientMetrics metrics;
+    private final File file;
+    /** seconds between the dumps, 0 disables the file */
+    private final long dumpInterval;
+
+    private ScheduledExecutorService executor;
+    private ObjectName objectName;
+
+    private static Logger logger = LoggerFactory.getLogger(MetricsReporter.class);
+
+    public MetricsReporter(ClientMetrics metrics, File file, long dumpInterval) {
+        this.metrics = metrics;
+        this.file = file;
+        this.dumpInterval = dumpInterval;
+    }
+
+    /**
+     * Creates the reporter configured by the "chat.client.metricsFile" and "chat.client.metricsInterval" properties,
+     * the file is written to the ".chat-client" directory in the user home by default.
+     * */
+    public static MetricsReporter fromSystemProperties(ClientMetrics metrics) {
+        String defaultFile = new File(new File(System.getProperty("user.home"), ".chat-client"), "metrics.log").getPath();
+        File file = new File(System.getProperty("chat.client.metricsFile", defaultFile));
+        return new MetricsReporter(metrics, file, Long.getLong("chat.client.metricsInterval", 60));
+    }
+
+    /**
+     * Registers the MBean and starts the periodic dumps.
+     * */
+    public synchronized void start() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME);
+            server.registerMBean(metrics, objectName);
+        } catch (JMException e) {
+            /* e.g. another runtime of the process has registered its metrics, they are still dumped */
+            logger.warn("Failed to register the metrics MBean", e);
+            objectName = null;
+        }
+
+        if (dumpInterval > 0) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chat-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::dump, dumpInterval, dumpInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Writes the final dump and unregisters the MBean.
+     * */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            dump();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.warn("Failed to unregister the metrics MBean", e);
+            }
+        }
+    }
+
+    /**
+     * Appends the current values to the file.
+     * */
+    private void dump() {
+        String line = TIME_FORMAT.format(LocalDateTime.now()) + " " + metrics.summary() + "\n";
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Failed to create " + directory);
+            }
+            if (file.length() > MAX_FILE_SIZE) {
+                File previous = new File(file.getPath() + ".1");
+                if (previous.exists() && !previous.delete() || !file.renameTo(previous)) {
+                    throw new IOException("Failed to rotate " + file);
+                }
+            }
+            try (Writer writer = new FileWriter(file, true)) {
+                writer.write(line);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to write the metrics to " + file, e);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package net.ivango.chat.client.misc;
+
+import net.ivango.chat.client.ConnectionStage;
+
+public interface ConnectionProgressCallback {
+    public void onConnectionProgress(ConnectionStage stage);
+}
@@ -0,0 +1,7 @@
+package net.ivango.chat.client.misc;
+
+import net.ivango.chat.client.ConnectionState;
+
+public interface ConnectionStateCallback {
+    public void onConnectionStateChanged(ConnectionState state);
+}
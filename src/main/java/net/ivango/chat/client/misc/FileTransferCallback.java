@@ -0,0 +1,10 @@
+package net.ivango.chat.client.misc;
+
+import net.ivango.chat.client.transfer.FileTransfer;
+
+public interface FileTransferCallback {
+    /** another user offers a file, it is accepted or declined by the file transfer manager */
+    public void onFileOffered(FileTransfer transfer);
+    /** the progress or the final state of a transfer */
+    public void onFileTransferUpdated(FileTransfer transfer);
+}
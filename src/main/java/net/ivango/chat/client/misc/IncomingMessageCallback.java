@@ -1,6 +1,10 @@
 package net.ivango.chat.client.misc;
 
 
+import net.ivango.chat.client.ReceivedMessage;
+
+import java.util.List;
+
 public interface IncomingMessageCallback {
-    public void onMessageReceived(String sender, String message, boolean broadcast);
+    public void onMessageReceived(List<ReceivedMessage> messages);
 }
@@ -0,0 +1,5 @@
+package net.ivango.chat.client.misc;
+
+public interface NewSessionCallback {
+    public void onNewSessionRequested();
+}
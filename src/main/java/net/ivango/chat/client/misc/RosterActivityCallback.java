@@ -0,0 +1,6 @@
+package net.ivango.chat.client.misc;
+
+public interface RosterActivityCallback {
+    /** the user uses the user list, e.g. opens the receiver list, so it should be fresh */
+    public void onRosterInteraction();
+}
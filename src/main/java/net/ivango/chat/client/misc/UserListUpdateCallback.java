@@ -5,5 +5,8 @@ import net.ivango.chat.common.responses.User;
 import java.util.List;
 
 public interface UserListUpdateCallback {
+    /** replaces the whole user list */
     public void onUserListUpdated(List<User> users);
+    /** applies the presence changes: joined users are added or replaced, left users are removed */
+    public void onUserListChanged(List<User> joined, List<User> left);
 }
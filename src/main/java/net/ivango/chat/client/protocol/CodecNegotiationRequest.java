@@ -0,0 +1,20 @@
+package net.ivango.chat.client.protocol;
+
+import net.ivango.chat.common.requests.Message;
+
+/**
+ * Switches the wire format of the connection, sent only to the servers advertising the codec.
+ * The request itself is written in JSON, every later client message is written in the requested format.
+ * */
+public class CodecNegotiationRequest implements Message {
+
+    private String codec;
+
+    public CodecNegotiationRequest() {}
+
+    public CodecNegotiationRequest(String codec) {
+        this.codec = codec;
+    }
+
+    public String getCodec() { return codec; }
+}
@@ -0,0 +1,19 @@
+package net.ivango.chat.client.protocol;
+
+import net.ivango.chat.common.requests.Message;
+
+/**
+ * Confirms the codec switch: the response is written in JSON, every later server message in the new format.
+ * */
+public class CodecNegotiationResponse implements Message {
+
+    private String codec;
+
+    public CodecNegotiationResponse() {}
+
+    public CodecNegotiationResponse(String codec) {
+        this.codec = codec;
+    }
+
+    public String getCodec() { return codec; }
+}
@@ -0,0 +1,43 @@
+package net.ivango.chat.client.protocol;
+
+import net.ivango.chat.common.requests.Message;
+
+/**
+ * Offers a file to a user, sent only to the servers advertising the file transfer feature.
+ * Sent with the receiver address, the server relays it with the sender address and name filled in.
+ * */
+public class FileOffer implements Message {
+
+    private String transferId;
+    private String receiver;
+    private String from;
+    private String senderName;
+    private String fileName;
+    private long size;
+    /** last modification time of the file in ms, tells another file of the same name and size apart */
+    private long modified;
+
+    public FileOffer() {}
+
+    public FileOffer(String transferId, String receiver, String fileName, long size, long modified) {
+        this.transferId = transferId;
+        this.receiver = receiver;
+        this.fileName = fileName;
+        this.size = size;
+        this.modified = modified;
+    }
+
+    public String getTransferId() { return transferId; }
+
+    public String getReceiver() { return receiver; }
+
+    public String getFrom() { return from; }
+
+    public String getSenderName() { return senderName; }
+
+    public String getFileName() { return fileName; }
+
+    public long getSize() { return size; }
+
+    public long getModified() { return modified; }
+}
@@ -0,0 +1,35 @@
+package net.ivango.chat.client.protocol;
+
+import net.ivango.chat.common.requests.Message;
+
+/**
+ * Accepts or declines a file offer. Sent to the address of the sender, relayed with the receiver address filled in.
+ * The offset is the number of bytes the receiver already has from an interrupted transfer, the rest follows.
+ * */
+public class FileOfferResponse implements Message {
+
+    private String transferId;
+    private String receiver;
+    private String from;
+    private boolean accepted;
+    private long offset;
+
+    public FileOfferResponse() {}
+
+    public FileOfferResponse(String transferId, String receiver, boolean accepted, long offset) {
+        this.transferId = transferId;
+        this.receiver = receiver;
+        this.accepted = accepted;
+        this.offset = offset;
+    }
+
+    public String getTransferId() { return transferId; }
+
+    public String getReceiver() { return receiver; }
+
+    public String getFrom() { return from; }
+
+    public boolean isAccepted() { return accepted; }
+
+    public long getOffset() { return offset; }
+}
@@ -0,0 +1,29 @@
+package net.ivango.chat.client.protocol;
+
+import net.ivango.chat.common.requests.Message;
+
+/**
+ * Opens a data connection of a file transfer: the first and only message of the connection, written in JSON.
+ * The sender's connection carries the raw file bytes from the offset on, the server passes them
+ * to the receiver's connection with the same transfer id. The sender closes its connection once the file is sent.
+ * */
+public class FileStreamRequest implements Message {
+
+    private String transferId;
+    private boolean upload;
+    private long offset;
+
+    public FileStreamRequest() {}
+
+    public FileStreamRequest(String transferId, boolean upload, long offset) {
+        this.transferId = transferId;
+        this.upload = upload;
+        this.offset = offset;
+    }
+
+    public String getTransferId() { return transferId; }
+
+    public boolean isUpload() { return upload; }
+
+    public long getOffset() { return offset; }
+}
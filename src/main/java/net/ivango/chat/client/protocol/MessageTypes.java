@@ -0,0 +1,121 @@
+package net.ivango.chat.client.protocol;
+
+import net.ivango.chat.common.requests.*;
+import net.ivango.chat.common.responses.GetTimeResponse;
+import net.ivango.chat.common.responses.GetUsersResponse;
+import net.ivango.chat.common.responses.IncomingMessage;
+import net.ivango.chat.common.responses.User;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Numeric identifiers of the message types used by the binary wire format instead of the class names.
+ * The identifier is the position in the list, so new types must only be appended to its end.
+ * The binary layout of every type, i.e. the order its fields are written in, is pinned here as well,
+ * so it never depends on the order the reflection returns the fields in. New fields are appended to the end.
+ * */
+public final class MessageTypes {
+
+    private static final List<Class<? extends Message>> TYPES = Collections.unmodifiableList(Arrays.asList(
+            LoginRequest.class,
+            GetUsersRequest.class,
+            GetTimeRequest.class,
+            SendMessageRequest.class,
+            GetUsersResponse.class,
+            GetTimeResponse.class,
+            IncomingMessage.class,
+            ServerCapabilities.class,
+            UserJoinedEvent.class,
+            UserLeftEvent.class,
+            FileOffer.class,
+            FileOfferResponse.class
+    ));
+
+    private static final Map<Class<?>, Integer> IDS = new HashMap<>();
+    /** the types by their class names, including the ones exchanged in JSON only */
+    private static final Map<String, Class<? extends Message>> NAMES = new HashMap<>();
+    static {
+        for (int i = 0; i < TYPES.size(); i++) {
+            IDS.put(TYPES.get(i), i);
+            NAMES.put(TYPES.get(i).getName(), TYPES.get(i));
+        }
+        NAMES.put(CodecNegotiationRequest.class.getName(), CodecNegotiationRequest.class);
+        NAMES.put(CodecNegotiationResponse.class.getName(), CodecNegotiationResponse.class);
+        NAMES.put(FileStreamRequest.class.getName(), FileStreamRequest.class);
+    }
+
+    private static final Map<Class<?>, Layout> LAYOUTS = new HashMap<>();
+    static {
+        layout(LoginRequest.class, () -> new LoginRequest(null), "userName");
+        layout(GetUsersRequest.class, GetUsersRequest::new);
+        layout(GetTimeRequest.class, GetTimeRequest::new);
+        layout(SendMessageRequest.class, () -> new SendMessageRequest(null, null, false), "broadcast", "message", "receiver");
+        layout(GetUsersResponse.class, GetUsersResponse::new, "users");
+        layout(GetTimeResponse.class, GetTimeResponse::new, "utcServerTime");
+        layout(IncomingMessage.class, IncomingMessage::new, "broadcast", "from", "message", "senderName");
+        layout(ServerCapabilities.class, ServerCapabilities::new, "features");
+        layout(UserJoinedEvent.class, UserJoinedEvent::new, "user");
+        layout(UserLeftEvent.class, UserLeftEvent::new, "user");
+        layout(FileOffer.class, FileOffer::new, "fileName", "from", "receiver", "senderName", "size", "transferId", "modified");
+        layout(FileOfferResponse.class, FileOfferResponse::new, "accepted", "from", "offset", "receiver", "transferId");
+        /* the nested types */
+        layout(User.class, User::new, "address", "userName");
+    }
+
+    private MessageTypes() {}
+
+    private static <T> void layout(Class<T> type, Supplier<T> factory, String... fields) {
+        LAYOUTS.put(type, new Layout(factory, Arrays.asList(fields)));
+    }
+
+    /**
+     * Returns the identifier of the message type, -1 if the type has none.
+     * */
+    public static int idOf(Class<?> type) {
+        Integer id = IDS.get(type);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the message type by its identifier, null if it is unknown.
+     * */
+    public static Class<? extends Message> typeOf(int id) {
+        return id >= 0 && id < TYPES.size() ? TYPES.get(id) : null;
+    }
+
+    /**
+     * Returns the message type by its class name, null if it is unknown.
+     * */
+    public static Class<? extends Message> typeOf(String className) {
+        return NAMES.get(className);
+    }
+
+    /**
+     * Returns the binary layout of the message or nested type, null if it has none.
+     * */
+    public static Layout layoutOf(Class<?> type) {
+        return LAYOUTS.get(type);
+    }
+
+    /**
+     * Binary layout of a type: the factory of its empty instances and its fields in the order they are written.
+     * */
+    public static final class Layout {
+        private final Supplier<?> factory;
+        private final List<String> fields;
+
+        private Layout(Supplier<?> factory, List<String> fields) {
+            this.factory = factory;
+            this.fields = Collections.unmodifiableList(fields);
+        }
+
+        public Supplier<?> getFactory() { return factory; }
+
+        public List<String> getFields() { return fields; }
+    }
+}
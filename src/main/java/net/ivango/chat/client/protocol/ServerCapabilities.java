@@ -0,0 +1,32 @@
+package net.ivango.chat.client.protocol;
+
+import net.ivango.chat.common.requests.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pushed by the server after the login, lists the optional protocol features it supports.
+ * Servers not sending it are treated as supporting none of them.
+ * */
+public class ServerCapabilities implements Message {
+
+    /** server pushes the user joined/ left events, so the user list needs no polling */
+    public static final String PRESENCE = "presence";
+    /** server relays the file offers and the file data connections */
+    public static final String FILE_TRANSFER = "files";
+
+    private List<String> features = new ArrayList<>();
+
+    public ServerCapabilities() {}
+
+    public ServerCapabilities(List<String> features) {
+        this.features = features;
+    }
+
+    public List<String> getFeatures() { return features; }
+
+    public boolean supports(String feature) {
+        return features != null && features.contains(feature);
+    }
+}
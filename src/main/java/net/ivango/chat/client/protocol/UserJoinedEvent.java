@@ -0,0 +1,20 @@
+package net.ivango.chat.client.protocol;
+
+import net.ivango.chat.common.requests.Message;
+import net.ivango.chat.common.responses.User;
+
+/**
+ * Pushed by the servers supporting the presence feature when a user logs in.
+ * */
+public class UserJoinedEvent implements Message {
+
+    private User user;
+
+    public UserJoinedEvent() {}
+
+    public UserJoinedEvent(User user) {
+        this.user = user;
+    }
+
+    public User getUser() { return user; }
+}
@@ -0,0 +1,20 @@
+package net.ivango.chat.client.protocol;
+
+import net.ivango.chat.common.requests.Message;
+import net.ivango.chat.common.responses.User;
+
+/**
+ * Pushed by the servers supporting the presence feature when a user disconnects.
+ * */
+public class UserLeftEvent implements Message {
+
+    private User user;
+
+    public UserLeftEvent() {}
+
+    public UserLeftEvent(User user) {
+        this.user = user;
+    }
+
+    public User getUser() { return user; }
+}
@@ -0,0 +1,29 @@
+package net.ivango.chat.client.store;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints, e.g. the postings of a term.
+ * */
+final class IntList implements Postings {
+
+    private int[] values;
+    private int size;
+
+    IntList(int capacity) {
+        this.values = new int[capacity];
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    public int get(int index) { return values[index]; }
+
+    @Override
+    public int size() { return size; }
+}
@@ -0,0 +1,250 @@
+package net.ivango.chat.client.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A part of the message log: the records file named by the id of its first message,
+ * the offsets of the records and the inverted index of their terms.
+ * The segment being appended to keeps the offsets and the index on the heap,
+ * once sealed they are written next to the records and memory-mapped. The offsets take 8 bytes each,
+ * so a segment may exceed 2 GiB.
+ * A record is its length, the CRC32 of the body and the body: the time, the flags,
+ * the sender and the text, so a record torn by a crash is detected and dropped on the next start.
+ * */
+class LogSegment {
+
+    static final String LOG_SUFFIX = ".log";
+    private static final String OFFSETS_SUFFIX = ".idx";
+    private static final String TERMS_SUFFIX = ".tix";
+
+    private static final int HEADER_SIZE = 8;
+    private static final int MIN_BODY_SIZE = 8 + 1 + 2;
+    private static final int MAX_BODY_SIZE = 1024 * 1024;
+    private static final int FLAG_BROADCAST = 1, FLAG_OWN = 2;
+
+    private static Logger logger = LoggerFactory.getLogger(LogSegment.class);
+
+    private final long baseId;
+    private final Path logPath, offsetsPath, termsPath;
+    private final FileChannel log;
+    private long logSize;
+    private final CRC32 crc = new CRC32();
+
+    /** set while the segment is appended to */
+    private LongList offsets;
+    private Map<String, IntList> terms;
+    /** set once sealed */
+    private MappedByteBuffer sealedOffsets;
+    private TermIndex sealedTerms;
+    private int sealedSize;
+
+    private LogSegment(Path directory, long baseId) throws IOException {
+        this.baseId = baseId;
+        String name = String.format("%020d", baseId);
+        this.logPath = directory.resolve(name + LOG_SUFFIX);
+        this.offsetsPath = directory.resolve(name + OFFSETS_SUFFIX);
+        this.termsPath = directory.resolve(name + TERMS_SUFFIX);
+        this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.logSize = log.size();
+    }
+
+    /**
+     * Creates an empty segment to append to.
+     * */
+    static LogSegment create(Path directory, long baseId) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseId);
+        segment.offsets = new LongList(1024);
+        segment.terms = new HashMap<>();
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment. The last one is appended to, so its records are scanned:
+     * the offsets and the index are rebuilt and a torn tail is truncated.
+     * A sealed one is mapped, unless its index files are missing, e.g. after a crash during sealing.
+     * */
+    static LogSegment open(Path directory, long baseId, boolean last) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseId);
+        if (!last && Files.exists(segment.offsetsPath) && Files.exists(segment.termsPath)) {
+            segment.map();
+            return segment;
+        }
+        Files.deleteIfExists(segment.offsetsPath);
+        Files.deleteIfExists(segment.termsPath);
+        segment.offsets = new LongList(1024);
+        segment.terms = new HashMap<>();
+        segment.scan();
+        if (!last) {
+            segment.seal();
+        }
+        return segment;
+    }
+
+    long getBaseId() { return baseId; }
+
+    int size() {
+        return offsets != null ? offsets.size() : sealedSize;
+    }
+
+    boolean isSealed() {
+        return offsets == null;
+    }
+
+    /**
+     * Appends the message, returns its id.
+     * */
+    long append(long time, String sender, String text, boolean broadcast, boolean own) throws IOException {
+        byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        int bodySize = MIN_BODY_SIZE + senderBytes.length + textBytes.length;
+        if (bodySize > MAX_BODY_SIZE || senderBytes.length > 0xFFFF) {
+            throw new IOException("Message is too large to be stored: " + bodySize + " bytes");
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        record.position(HEADER_SIZE);
+        record.putLong(time)
+              .put((byte) ((broadcast ? FLAG_BROADCAST : 0) | (own ? FLAG_OWN : 0)))
+              .putShort((short) senderBytes.length)
+              .put(senderBytes)
+              .put(textBytes);
+        crc.reset();
+        crc.update(record.array(), HEADER_SIZE, bodySize);
+        record.putInt(0, bodySize).putInt(4, (int) crc.getValue());
+        record.flip();
+
+        long position = logSize;
+        while (record.hasRemaining()) {
+            position += log.write(record, position);
+        }
+        index(offsets.size(), logSize, sender, text);
+        logSize = position;
+        return baseId + offsets.size() - 1;
+    }
+
+    /**
+     * Reads the message at the given position in the segment.
+     * */
+    StoredMessage read(int local) throws IOException {
+        long position = offsets != null ? offsets.get(local) : sealedOffsets.getLong(8 * local);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, position);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+        readFully(body, position + HEADER_SIZE);
+        return decode(baseId + local, body);
+    }
+
+    /**
+     * Returns the ascending positions of the messages containing the term, null if there are none.
+     * */
+    Postings postings(String term) {
+        return terms != null ? terms.get(term) : sealedTerms.postings(term);
+    }
+
+    /**
+     * Writes the offsets and the index next to the records and maps them, the segment is read-only then.
+     * */
+    void seal() throws IOException {
+        log.force(false);
+        Path temp = offsetsPath.resolveSibling(offsetsPath.getFileName() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(8 * offsets.size());
+        for (int i = 0; i < offsets.size(); i++) {
+            buffer.putLong(offsets.get(i));
+        }
+        Files.write(temp, buffer.array());
+        Files.move(temp, offsetsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        TermIndex.write(termsPath, terms);
+        map();
+        offsets = null;
+        terms = null;
+    }
+
+    void close() throws IOException {
+        if (!isSealed()) {
+            log.force(false);
+        }
+        log.close();
+    }
+
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(offsetsPath, StandardOpenOption.READ)) {
+            sealedOffsets = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            sealedSize = (int) (channel.size() / 8);
+        }
+        sealedTerms = TermIndex.open(termsPath);
+    }
+
+    /**
+     * Rebuilds the offsets and the index from the records, truncates the log at the first damaged record.
+     * */
+    private void scan() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long position = 0;
+        while (position + HEADER_SIZE <= logSize) {
+            header.clear();
+            readFully(header, position);
+            int bodySize = header.getInt(0);
+            if (bodySize < MIN_BODY_SIZE || bodySize > MAX_BODY_SIZE || position + HEADER_SIZE + bodySize > logSize) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(bodySize);
+            readFully(body, position + HEADER_SIZE);
+            crc.reset();
+            crc.update(body.array(), 0, bodySize);
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+            StoredMessage message = decode(baseId + offsets.size(), body);
+            index(offsets.size(), position, message.getSender(), message.getText());
+            position += HEADER_SIZE + bodySize;
+        }
+        if (position < logSize) {
+            logger.warn("Message log {} is damaged at {}, {} bytes dropped", logPath, position, logSize - position);
+            log.truncate(position);
+            logSize = position;
+        }
+    }
+
+    private void index(int local, long position, String sender, String text) {
+        offsets.add(position);
+        Set<String> messageTerms = Terms.of(sender, text);
+        for (String term : messageTerms) {
+            terms.computeIfAbsent(term, ignored -> new IntList(4)).add(local);
+        }
+    }
+
+    private static StoredMessage decode(long id, ByteBuffer body) {
+        body.rewind();
+        long time = body.getLong();
+        int flags = body.get();
+        int senderLength = body.getShort() & 0xFFFF;
+        String sender = new String(body.array(), body.position(), senderLength, StandardCharsets.UTF_8);
+        int textStart = body.position() + senderLength;
+        String text = new String(body.array(), textStart, body.limit() - textStart, StandardCharsets.UTF_8);
+        return new StoredMessage(id, time, sender, text, (flags & FLAG_BROADCAST) != 0, (flags & FLAG_OWN) != 0);
+    }
+
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = log.read(target, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + logPath);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package net.ivango.chat.client.store;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive longs, e.g. the record offsets of a segment.
+ * */
+final class LongList {
+
+    private long[] values;
+    private int size;
+
+    LongList(int capacity) {
+        this.values = new long[capacity];
+    }
+
+    void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    long get(int index) { return values[index]; }
+
+    int size() { return size; }
+}
@@ -0,0 +1,111 @@
+package net.ivango.chat.client.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact append-only archive of the message lines, kept off-heap in temporary files.
+ * The data file stores the UTF-8 lines back to back, the index file stores an 8 byte offset per line,
+ * so neither the lines nor their offsets occupy the heap.
+ * Not thread safe: used from the Java FX thread only.
+ * */
+public class MessageArchive {
+
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private final Path dataPath, indexPath;
+    private final FileChannel data, index;
+    /** reused by the reads and writes */
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(2 * INDEX_ENTRY_SIZE);
+
+    private long size;
+    private long dataSize;
+
+    public MessageArchive() throws IOException {
+        dataPath = Files.createTempFile("chat-history", ".dat");
+        indexPath = Files.createTempFile("chat-history", ".idx");
+        dataPath.toFile().deleteOnExit();
+        indexPath.toFile().deleteOnExit();
+        data = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Returns the number of archived lines.
+     * */
+    public long size() { return size; }
+
+    /**
+     * Appends the line to the end of the archive.
+     * */
+    public void append(String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        writeFully(data, ByteBuffer.wrap(bytes), dataSize);
+
+        indexBuffer.clear();
+        indexBuffer.putLong(dataSize).flip();
+        writeFully(index, indexBuffer, size * INDEX_ENTRY_SIZE);
+
+        dataSize += bytes.length;
+        size++;
+    }
+
+    /**
+     * Reads the lines [from, from + count) into the target array.
+     * */
+    public void read(long from, int count, String[] target) throws IOException {
+        for (int i = 0; i < count; i++) {
+            long position = from + i;
+            indexBuffer.clear();
+            /* the last line has no next offset, the data size is used instead */
+            if (position + 1 == size) {
+                indexBuffer.limit(INDEX_ENTRY_SIZE);
+            }
+            readFully(index, indexBuffer, position * INDEX_ENTRY_SIZE);
+            indexBuffer.flip();
+            long start = indexBuffer.getLong();
+            long end = indexBuffer.hasRemaining() ? indexBuffer.getLong() : dataSize;
+
+            int length = (int) (end - start);
+            if (buffer.capacity() < length) {
+                buffer = ByteBuffer.allocateDirect(Math.max(length, buffer.capacity() * 2));
+            }
+            buffer.clear().limit(length);
+            readFully(data, buffer, start);
+            buffer.flip();
+            target[i] = StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    }
+
+    /**
+     * Closes and removes the archive files.
+     * */
+    public void close() throws IOException {
+        data.close();
+        index.close();
+        Files.deleteIfExists(dataPath);
+        Files.deleteIfExists(indexPath);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the archive file");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package net.ivango.chat.client.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Persistent history of a chat: an append-only log of the messages split into segments,
+ * each with an inverted index of the words of its messages.
+ * Appending writes a single record, the index of the current segment is kept on the heap.
+ * Once a segment is full its index is written to disk and memory-mapped, so the heap used stays flat
+ * however long the history is. A search looks the words up in every segment, newest first,
+ * and intersects the sorted postings from the newest message back until enough are found,
+ * so a search for common words stops early and only the messages returned are read.
+ * The directory is locked while the store is open. Not thread safe: used by a single thread,
+ * the history thread of the chat form, so the disk writes never hold up the Java FX thread.
+ * */
+public class MessageStore {
+
+    /** messages per segment, the index of the current segment is kept on the heap */
+    private static final int SEGMENT_SIZE = 16384;
+    private static final String LOCK_FILE = "lock";
+
+    private static Logger logger = LoggerFactory.getLogger(MessageStore.class);
+
+    private final Path directory;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    /** oldest first, the last one is appended to */
+    private final List<LogSegment> segments = new ArrayList<>();
+
+    private MessageStore(Path directory, FileChannel lockChannel, FileLock lock) {
+        this.directory = directory;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    /**
+     * Opens the store in the directory, creates it if needed.
+     * Fails if the store is used by another session or process.
+     * */
+    public static MessageStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Message store " + directory + " is used by another session");
+        }
+
+        MessageStore store = new MessageStore(directory, lockChannel, lock);
+        try {
+            store.openSegments();
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * Returns the directory of the history of the given user on the given server,
+     * under the "chat.client.historyDir" directory, ".chat-client/history" in the user home by default.
+     * */
+    public static Path directoryFor(String userName, String hostname, int port) {
+        String defaultRoot = Paths.get(System.getProperty("user.home"), ".chat-client", "history").toString();
+        Path root = Paths.get(System.getProperty("chat.client.historyDir", defaultRoot));
+        return root.resolve((userName + "@" + hostname + "_" + port).replaceAll("[^A-Za-z0-9._@-]", "_"));
+    }
+
+    /**
+     * Returns the number of the stored messages.
+     * */
+    public long size() {
+        LogSegment last = segments.get(segments.size() - 1);
+        return last.getBaseId() + last.size();
+    }
+
+    /**
+     * Appends the message, returns the stored one.
+     * */
+    public StoredMessage append(long time, String sender, String text, boolean broadcast, boolean own) throws IOException {
+        LogSegment last = segments.get(segments.size() - 1);
+        if (last.size() >= SEGMENT_SIZE) {
+            last.seal();
+            last = LogSegment.create(directory, last.getBaseId() + last.size());
+            segments.add(last);
+        }
+        long id = last.append(time, sender, text, broadcast, own);
+        return new StoredMessage(id, time, sender, text, broadcast, own);
+    }
+
+    /**
+     * Returns up to the given number of the latest messages, oldest first.
+     * */
+    public List<StoredMessage> readRecent(int count) throws IOException {
+        LinkedList<StoredMessage> messages = new LinkedList<>();
+        for (int s = segments.size() - 1; s >= 0 && messages.size() < count; s--) {
+            LogSegment segment = segments.get(s);
+            for (int i = segment.size() - 1; i >= 0 && messages.size() < count; i--) {
+                messages.addFirst(segment.read(i));
+            }
+        }
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * Returns up to the given number of the latest messages containing all the words of the query, newest first.
+     * The words are matched whole and case-insensitively.
+     * */
+    public List<StoredMessage> search(String query, int limit) throws IOException {
+        Set<String> terms = Terms.of(query);
+        List<StoredMessage> found = new ArrayList<>();
+        if (terms.isEmpty()) {
+            return found;
+        }
+        for (int s = segments.size() - 1; s >= 0 && found.size() < limit; s--) {
+            LogSegment segment = segments.get(s);
+            for (int position : match(segment, terms, limit - found.size())) {
+                found.add(segment.read(position));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns up to the given number of the latest segment positions containing all the terms, descending.
+     * The shortest postings list drives the intersection, its positions are looked up in the others
+     * by a binary search bounded by the previous match.
+     * */
+    private static int[] match(LogSegment segment, Set<String> terms, int limit) {
+        Postings[] postings = new Postings[terms.size()];
+        int n = 0;
+        for (String term : terms) {
+            postings[n] = segment.postings(term);
+            if (postings[n] == null) {
+                return new int[0];
+            }
+            n++;
+        }
+        Arrays.sort(postings, Comparator.comparingInt(Postings::size));
+
+        /* exclusive upper bounds of the lists, the candidates only decrease */
+        int[] bounds = new int[postings.length];
+        for (int i = 0; i < postings.length; i++) {
+            bounds[i] = postings[i].size();
+        }
+        int[] result = new int[Math.min(limit, postings[0].size())];
+        int size = 0;
+        candidates:
+        for (int c = postings[0].size() - 1; c >= 0 && size < result.length; c--) {
+            int candidate = postings[0].get(c);
+            for (int i = 1; i < postings.length; i++) {
+                int index = postings[i].floor(candidate, bounds[i]);
+                if (index < 0) {
+                    break candidates;
+                }
+                bounds[i] = index + 1;
+                if (postings[i].get(index) != candidate) {
+                    continue candidates;
+                }
+            }
+            result[size++] = candidate;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Flushes the log and releases the directory.
+     * */
+    public void close() {
+        for (LogSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the message log segment", e);
+            }
+        }
+        segments.clear();
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to release the message store " + directory, e);
+        }
+    }
+
+    private void openSegments() throws IOException {
+        List<Long> baseIds = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LogSegment.LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    baseIds.add(Long.parseLong(name.substring(0, name.length() - LogSegment.LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Unexpected file in the message store: " + file);
+                }
+            }
+        }
+        Collections.sort(baseIds);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < baseIds.size(); i++) {
+            segments.add(LogSegment.open(directory, baseIds.get(i), i == baseIds.size() - 1));
+        }
+        if (segments.isEmpty()) {
+            segments.add(LogSegment.create(directory, 0));
+        }
+        logger.info("Message store " + directory + " opened: " + size() + " messages in " + segments.size()
+                + " segment(s), " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
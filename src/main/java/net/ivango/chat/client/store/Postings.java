@@ -0,0 +1,29 @@
+package net.ivango.chat.client.store;
+
+/**
+ * Ascending positions of the messages of a segment containing a term.
+ * */
+interface Postings {
+
+    int size();
+
+    int get(int index);
+
+    /**
+     * Returns the index of the largest position not greater than the given one within [0, to), -1 if there is none.
+     * */
+    default int floor(int position, int to) {
+        int low = 0, high = to - 1, found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = get(middle);
+            if (value <= position) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+}
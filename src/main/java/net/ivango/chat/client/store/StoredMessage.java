@@ -0,0 +1,32 @@
+package net.ivango.chat.client.store;
+
+/**
+ * A message kept by the {@link MessageStore}.
+ * */
+public class StoredMessage {
+
+    /** position of the message in the store, grows with every message */
+    private final long id;
+    /** server time of the message, as UTC milliseconds */
+    private final long time;
+    private final String sender, text;
+    private final boolean broadcast;
+    /** sent by the user of the store */
+    private final boolean own;
+
+    public StoredMessage(long id, long time, String sender, String text, boolean broadcast, boolean own) {
+        this.id = id;
+        this.time = time;
+        this.sender = sender;
+        this.text = text;
+        this.broadcast = broadcast;
+        this.own = own;
+    }
+
+    public long getId() { return id; }
+    public long getTime() { return time; }
+    public String getSender() { return sender; }
+    public String getText() { return text; }
+    public boolean isBroadcast() { return broadcast; }
+    public boolean isOwn() { return own; }
+}
@@ -0,0 +1,139 @@
+package net.ivango.chat.client.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index of a sealed log segment, memory-mapped so it takes no heap.
+ * The file starts with the number of terms and the offsets of their entries sorted by the term bytes,
+ * so a term is found by a binary search. An entry is the UTF-8 term, the number of its postings
+ * and the postings: the ascending message positions in the segment. The positions have a fixed width,
+ * so the intersection searches them right in the mapped file instead of decoding whole lists.
+ * */
+final class TermIndex {
+
+    private final MappedByteBuffer buffer;
+    private final int termCount;
+
+    private TermIndex(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.termCount = buffer.getInt(0);
+    }
+
+    static TermIndex open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new TermIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the index of the given postings, the file appears complete or not at all.
+     * */
+    static void write(Path path, Map<String, IntList> postings) throws IOException {
+        List<byte[]> terms = new ArrayList<>(postings.size());
+        for (String term : postings.keySet()) {
+            terms.add(term.getBytes(StandardCharsets.UTF_8));
+        }
+        terms.sort(TermIndex::compare);
+
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entries);
+        int[] offsets = new int[terms.size()];
+        int headerSize = 4 + 4 * terms.size();
+        for (int i = 0; i < terms.size(); i++) {
+            byte[] term = terms.get(i);
+            IntList termPostings = postings.get(new String(term, StandardCharsets.UTF_8));
+            offsets[i] = headerSize + out.size();
+            out.writeShort(term.length);
+            out.write(term);
+            out.writeInt(termPostings.size());
+            for (int j = 0; j < termPostings.size(); j++) {
+                out.writeInt(termPostings.get(j));
+            }
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream file = new DataOutputStream(Files.newOutputStream(temp))) {
+            file.writeInt(terms.size());
+            for (int offset : offsets) {
+                file.writeInt(offset);
+            }
+            entries.writeTo(file);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the ascending positions of the messages containing the term, null if there are none.
+     * */
+    Postings postings(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0, high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = buffer.getInt(4 + 4 * middle);
+            int order = compareAt(entry, key);
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                int position = entry + 2 + (buffer.getShort(entry) & 0xFFFF);
+                return new MappedPostings(position + 4, buffer.getInt(position));
+            }
+        }
+        return null;
+    }
+
+    private class MappedPostings implements Postings {
+        private final int position, size;
+
+        private MappedPostings(int position, int size) {
+            this.position = position;
+            this.size = size;
+        }
+
+        @Override
+        public int size() { return size; }
+
+        @Override
+        public int get(int index) { return buffer.getInt(position + 4 * index); }
+    }
+
+    /**
+     * Compares the term of the entry at the given position with the key, as unsigned bytes.
+     * */
+    private int compareAt(int entry, byte[] key) {
+        int length = buffer.getShort(entry) & 0xFFFF;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int order = (buffer.get(entry + 2 + i) & 0xFF) - (key[i] & 0xFF);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return length - key.length;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int order = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,41 @@
+package net.ivango.chat.client.store;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits the text into the search terms: lower-case runs of letters and digits.
+ * */
+final class Terms {
+
+    /** longer runs are not words, e.g. encoded data, so they are not indexed */
+    static final int MAX_TERM_LENGTH = 64;
+
+    private Terms() {}
+
+    /**
+     * Returns the distinct terms of the texts in their order.
+     * */
+    static Set<String> of(String... texts) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+                if (wordChar && start < 0) {
+                    start = i;
+                } else if (!wordChar && start >= 0) {
+                    if (i - start <= MAX_TERM_LENGTH) {
+                        terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                    }
+                    start = -1;
+                }
+            }
+        }
+        return terms;
+    }
+}
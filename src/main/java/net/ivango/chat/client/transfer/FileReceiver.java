@@ -0,0 +1,311 @@
+package net.ivango.chat.client.transfer;
+
+import net.ivango.chat.client.protocol.FileStreamRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Receives an incoming file over its data connection into the "name.sender.part" file of the download directory,
+ * renamed once complete, so the files of the same name sent by different users never share a partial file.
+ * The ".part.info" file next to it keeps the identity of the offered file, i.e. the sender, the name, the size
+ * and the modification time, along with the length and the CRC32 of the part written so far.
+ * The partial file of an interrupted transfer is resumed only if the identity matches and its prefix
+ * still has the recorded CRC32, it is received again from the start otherwise. The data goes through
+ * a direct buffer and is written to the file asynchronously, so the I/O threads never wait for the disk.
+ * The next read is issued once the previous one is written: a slow disk holds the sender back
+ * through the TCP flow control instead of filling the memory.
+ * */
+class FileReceiver {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final String INFO_SUFFIX = ".info";
+    /** the received length is recorded every that many bytes, so a crash loses at most that much */
+    private static final long CHECKPOINT_INTERVAL = 16 * 1024 * 1024;
+
+    private static Logger logger = LoggerFactory.getLogger(FileReceiver.class);
+
+    private final FileTransfer transfer;
+    private final FileTransferManager manager;
+    private final Path directory;
+    private final Path part, info;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /** CRC32 of the first verified bytes of the file, the whole buffers written so far */
+    private final CRC32 crc = new CRC32();
+    private long verified, checkpoint;
+    private AsynchronousFileChannel file;
+    private AsynchronousSocketChannel channel;
+    /** the file position of the data in the buffer */
+    private long position;
+
+    FileReceiver(FileTransfer transfer, FileTransferManager manager, Path directory) {
+        this.transfer = transfer;
+        this.manager = manager;
+        this.directory = directory;
+        this.part = directory.resolve(partName(transfer));
+        this.info = part.resolveSibling(part.getFileName() + INFO_SUFFIX);
+    }
+
+    /**
+     * Opens the partial file, returns the offset to resume from. Reads the received part back to verify it.
+     * */
+    long prepare() throws IOException {
+        Files.createDirectories(directory);
+        long offset = resumableLength();
+        file = offset == 0
+                ? AsynchronousFileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                : AsynchronousFileChannel.open(part, StandardOpenOption.WRITE);
+        verified = offset;
+        checkpoint = offset;
+        try {
+            /* the data written after the latest checkpoint is not verified */
+            file.truncate(offset);
+            saveInfo();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        transfer.setFile(part);
+        transfer.setTransferred(offset);
+        return offset;
+    }
+
+    /**
+     * Returns the length of the partial file verified to be a part of the offered file, 0 if there is none.
+     * The CRC32 of the returned length is left in the crc.
+     * */
+    private long resumableLength() throws IOException {
+        crc.reset();
+        if (!Files.exists(part) || !Files.exists(info)) {
+            return 0;
+        }
+        Properties saved = new Properties();
+        try (InputStream in = Files.newInputStream(info)) {
+            saved.load(in);
+        }
+        long length, savedCrc;
+        try {
+            length = Long.parseLong(saved.getProperty("length", "0"));
+            savedCrc = Long.parseLong(saved.getProperty("crc", "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        if (!identity().equals(identity(saved)) || length <= 0 || length > transfer.getSize() || length > Files.size(part)) {
+            logger.info("Partial file {} is not a part of the offered file, it is received from the start", part);
+            return 0;
+        }
+        ByteBuffer prefix = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.READ)) {
+            for (long checked = 0; checked < length; ) {
+                prefix.clear();
+                prefix.limit((int) Math.min(prefix.capacity(), length - checked));
+                int read = channel.read(prefix, checked);
+                if (read < 0) {
+                    break;
+                }
+                checked += read;
+                prefix.flip();
+                crc.update(prefix);
+            }
+        }
+        if (crc.getValue() != savedCrc) {
+            logger.warn("Partial file {} is damaged, it is received from the start", part);
+            crc.reset();
+            return 0;
+        }
+        return length;
+    }
+
+    /**
+     * Records the identity of the offered file and the verified length, written to a temporary file and moved over,
+     * so the record is never torn.
+     * */
+    private void saveInfo() throws IOException {
+        Properties saved = identity();
+        saved.setProperty("length", Long.toString(verified));
+        saved.setProperty("crc", Long.toString(crc.getValue()));
+        Path temp = info.resolveSibling(info.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            saved.store(out, null);
+        }
+        Files.move(temp, info, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Properties identity() {
+        Properties identity = new Properties();
+        identity.setProperty("sender", Objects.toString(transfer.getPeerName(), ""));
+        identity.setProperty("name", transfer.getFileName());
+        identity.setProperty("size", Long.toString(transfer.getSize()));
+        identity.setProperty("modified", Long.toString(transfer.getModified()));
+        return identity;
+    }
+
+    private static Properties identity(Properties saved) {
+        Properties identity = new Properties();
+        for (String key : new String[] {"sender", "name", "size", "modified"}) {
+            identity.setProperty(key, saved.getProperty(key, ""));
+        }
+        return identity;
+    }
+
+    void start(AsynchronousChannelGroup channelGroup, InetSocketAddress server, long offset) {
+        position = offset;
+        try {
+            channel = AsynchronousSocketChannel.open(channelGroup);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        manager.openStream(channel, server, new FileStreamRequest(transfer.getId(), false, offset))
+               .whenComplete((ignored, e) -> {
+                   if (e != null) {
+                       fail(e);
+                   } else {
+                       read();
+                   }
+               });
+    }
+
+    private void read() {
+        if (position == transfer.getSize()) {
+            finish();
+            return;
+        }
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), transfer.getSize() - position));
+        channel.read(buffer, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer read, Void attachment) {
+                if (read < 0) {
+                    fail(new IOException("Connection closed after " + position + " of " + transfer.getSize() + " bytes"));
+                    return;
+                }
+                buffer.flip();
+                write();
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                fail(exc);
+            }
+        });
+    }
+
+    private void write() {
+        file.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                position += written;
+                if (buffer.hasRemaining()) {
+                    file.write(buffer, position, null, this);
+                    return;
+                }
+                buffer.flip();
+                crc.update(buffer);
+                verified = position;
+                if (verified - checkpoint >= CHECKPOINT_INTERVAL) {
+                    checkpoint = verified;
+                    try {
+                        saveInfo();
+                    } catch (IOException e) {
+                        fail(e);
+                        return;
+                    }
+                }
+                transfer.setTransferred(position);
+                manager.report(transfer, false);
+                read();
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                fail(exc);
+            }
+        });
+    }
+
+    private void finish() {
+        close();
+        try {
+            Path target = directory.resolve(safeName(transfer.getFileName()));
+            for (int i = 1; Files.exists(target); i++) {
+                target = directory.resolve(numbered(safeName(transfer.getFileName()), i));
+            }
+            Files.move(part, target);
+            Files.deleteIfExists(info);
+            transfer.setFile(target);
+        } catch (IOException e) {
+            manager.fail(transfer, e);
+            return;
+        }
+        manager.complete(transfer);
+    }
+
+    private void fail(Throwable e) {
+        close();
+        if (file != null) {
+            try {
+                saveInfo();
+            } catch (IOException ie) {
+                logger.warn("Failed to record the received part of {}", part, ie);
+            }
+        }
+        manager.fail(transfer, e);
+    }
+
+    private void close() {
+        try {
+            if (file != null) {
+                file.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            /* nothing to do */
+        }
+    }
+
+    /**
+     * Returns the name of the partial file of the transfer, the offered name followed by the sender name.
+     * */
+    static String partName(FileTransfer transfer) {
+        return safeName(transfer.getFileName()) + "." + safeName(Objects.toString(transfer.getPeerName(), ""))
+                + FileTransferManager.PART_SUFFIX;
+    }
+
+    /**
+     * Strips the directories off the name offered by the other user, so the file stays in the download directory.
+     * */
+    static String safeName(String fileName) {
+        String name = fileName.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        return name.isEmpty() || name.equals(".") || name.equals("..") ? "file" : name;
+    }
+
+    /**
+     * Returns "name (i).ext" for "name.ext".
+     * */
+    private static String numbered(String name, int i) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0
+                ? name.substring(0, dot) + " (" + i + ")" + name.substring(dot)
+                : name + " (" + i + ")";
+    }
+}
@@ -0,0 +1,110 @@
+package net.ivango.chat.client.transfer;
+
+import net.ivango.chat.client.protocol.FileStreamRequest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams an outgoing file over its data connection. The file is mapped into memory chunk by chunk
+ * and every chunk is written to the socket as is, so the data is never copied into the heap.
+ * The asynchronous channels have no transferTo, the mapped chunks are the nearest thing to it.
+ * A single chunk is written at a time: a slow receiver holds the sender back through the TCP flow control.
+ * */
+class FileSender implements CompletionHandler<Integer, MappedByteBuffer> {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final FileTransfer transfer;
+    private final FileTransferManager manager;
+    private FileChannel file;
+    private AsynchronousSocketChannel channel;
+    /** the file position of the chunk being written */
+    private long position;
+
+    FileSender(FileTransfer transfer, FileTransferManager manager) {
+        this.transfer = transfer;
+        this.manager = manager;
+    }
+
+    void start(AsynchronousChannelGroup channelGroup, InetSocketAddress server, long offset) {
+        position = offset;
+        try {
+            file = FileChannel.open(transfer.getFile(), StandardOpenOption.READ);
+            if (file.size() != transfer.getSize()
+                    || Files.getLastModifiedTime(transfer.getFile()).toMillis() != transfer.getModified()) {
+                throw new IOException("The file has changed since offered");
+            }
+            channel = AsynchronousSocketChannel.open(channelGroup);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        manager.openStream(channel, server, new FileStreamRequest(transfer.getId(), true, offset))
+               .whenComplete((ignored, e) -> {
+                   if (e != null) {
+                       fail(e);
+                   } else {
+                       sendChunk();
+                   }
+               });
+    }
+
+    private void sendChunk() {
+        if (position == transfer.getSize()) {
+            close();
+            manager.complete(transfer);
+            return;
+        }
+        MappedByteBuffer chunk;
+        try {
+            chunk = file.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, transfer.getSize() - position));
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        channel.write(chunk, chunk, this);
+    }
+
+    @Override
+    public void completed(Integer written, MappedByteBuffer chunk) {
+        transfer.setTransferred(position + chunk.position());
+        manager.report(transfer, false);
+        if (chunk.hasRemaining()) {
+            channel.write(chunk, chunk, this);
+        } else {
+            position += chunk.limit();
+            sendChunk();
+        }
+    }
+
+    @Override
+    public void failed(Throwable exc, MappedByteBuffer chunk) {
+        fail(exc);
+    }
+
+    private void fail(Throwable e) {
+        close();
+        manager.fail(transfer, e);
+    }
+
+    private void close() {
+        try {
+            if (file != null) {
+                file.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            /* nothing to do */
+        }
+    }
+}
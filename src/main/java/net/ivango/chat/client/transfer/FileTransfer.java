@@ -0,0 +1,80 @@
+package net.ivango.chat.client.transfer;
+
+import java.nio.file.Path;
+
+/**
+ * A file sent to or received from another user, together with its progress.
+ * Updated by the I/O threads, read by the UI.
+ * */
+public class FileTransfer {
+
+    public enum Status { OFFERED, TRANSFERRING, COMPLETED, DECLINED, FAILED }
+
+    private final String id;
+    private final boolean outgoing;
+    /** address and name of the other user */
+    private final String peer, peerName;
+    private final String fileName;
+    private final long size;
+    /** last modification time of the file in ms, as offered by the sender */
+    private final long modified;
+
+    /** the source of an outgoing transfer, the target of an incoming one once accepted */
+    private volatile Path file;
+    private volatile long transferred;
+    private volatile Status status = Status.OFFERED;
+    private volatile Throwable failure;
+    /** local time of the latest progress report, used by the I/O thread of the transfer only */
+    private long reportedNanos;
+
+    FileTransfer(String id, boolean outgoing, String peer, String peerName, String fileName, long size, long modified, Path file) {
+        this.id = id;
+        this.outgoing = outgoing;
+        this.peer = peer;
+        this.peerName = peerName;
+        this.fileName = fileName;
+        this.size = size;
+        this.modified = modified;
+        this.file = file;
+    }
+
+    public String getId() { return id; }
+
+    public boolean isOutgoing() { return outgoing; }
+
+    public String getPeer() { return peer; }
+
+    public String getPeerName() { return peerName; }
+
+    public String getFileName() { return fileName; }
+
+    public long getSize() { return size; }
+
+    public long getModified() { return modified; }
+
+    public Path getFile() { return file; }
+    void setFile(Path file) { this.file = file; }
+
+    public long getTransferred() { return transferred; }
+    void setTransferred(long transferred) { this.transferred = transferred; }
+
+    public Status getStatus() { return status; }
+    void setStatus(Status status) { this.status = status; }
+
+    /**
+     * Returns the cause of the failure, null unless failed.
+     * */
+    public Throwable getFailure() { return failure; }
+
+    void fail(Throwable failure) {
+        this.failure = failure;
+        this.status = Status.FAILED;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.DECLINED || status == Status.FAILED;
+    }
+
+    long getReportedNanos() { return reportedNanos; }
+    void setReportedNanos(long reportedNanos) { this.reportedNanos = reportedNanos; }
+}
@@ -0,0 +1,255 @@
+package net.ivango.chat.client.transfer;
+
+import net.ivango.chat.client.NetworkEventSink;
+import net.ivango.chat.client.io.JsonCodec;
+import net.ivango.chat.client.protocol.FileOffer;
+import net.ivango.chat.client.protocol.FileOfferResponse;
+import net.ivango.chat.client.protocol.FileStreamRequest;
+import net.ivango.chat.common.requests.Message;
+import net.ivango.chat.common.responses.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * File transfers of a connection. The offers and the answers go through the chat connection,
+ * the file itself is streamed over a data connection of its own, so a large file never holds up the chat
+ * and the data never passes through the message codecs. An interrupted transfer is resumed
+ * once the same file is offered again: the receiver answers with the verified size of its partial file.
+ * The progress is reported to the event sink at most every {@link #PROGRESS_INTERVAL} ms per transfer.
+ * */
+public class FileTransferManager {
+
+    private static final long PROGRESS_INTERVAL = 100;
+    static final String PART_SUFFIX = ".part";
+
+    private final AsynchronousChannelGroup channelGroup;
+    /** verifies the partial files, reading them back blocks */
+    private final Executor fileExecutor;
+    private final Path downloadDirectory;
+    private final Map<String, FileTransfer> transfers = new ConcurrentHashMap<>();
+
+    private volatile InetSocketAddress server;
+    private volatile boolean supported;
+    private NetworkEventSink eventSink;
+    private Function<Message, CompletableFuture<Void>> sender;
+
+    private static Logger logger = LoggerFactory.getLogger(FileTransferManager.class);
+
+    public FileTransferManager(AsynchronousChannelGroup channelGroup, Executor fileExecutor, Path downloadDirectory) {
+        this.channelGroup = channelGroup;
+        this.fileExecutor = fileExecutor;
+        this.downloadDirectory = downloadDirectory;
+    }
+
+    /**
+     * Returns the "chat.client.downloadDir" directory, "Downloads" in the user home by default.
+     * */
+    public static Path defaultDownloadDirectory() {
+        String defaultDirectory = Paths.get(System.getProperty("user.home"), "Downloads").toString();
+        return Paths.get(System.getProperty("chat.client.downloadDir", defaultDirectory));
+    }
+
+    /**
+     * Called once connected: the events go to the sink, the messages are sent with the sender.
+     * */
+    public void start(NetworkEventSink eventSink, Function<Message, CompletableFuture<Void>> sender) {
+        this.eventSink = eventSink;
+        this.sender = sender;
+    }
+
+    /**
+     * Sets the server address the data connections are opened to.
+     * */
+    public void setServer(InetSocketAddress server) { this.server = server; }
+
+    /**
+     * Set once the server advertises the file transfer feature.
+     * */
+    public void setSupported(boolean supported) { this.supported = supported; }
+
+    public boolean isSupported() { return supported; }
+
+    /**
+     * Offers the file to the user, it is sent once accepted.
+     * */
+    public FileTransfer offer(Path file, User receiver) throws IOException {
+        if (!supported) {
+            throw new IOException("The server does not support file transfers");
+        }
+        FileTransfer transfer = new FileTransfer(UUID.randomUUID().toString(), true, receiver.getAddress(),
+                receiver.getUserName(), file.getFileName().toString(), Files.size(file),
+                Files.getLastModifiedTime(file).toMillis(), file);
+        transfers.put(transfer.getId(), transfer);
+        sender.apply(new FileOffer(transfer.getId(), receiver.getAddress(), transfer.getFileName(), transfer.getSize(),
+                transfer.getModified()))
+              .whenComplete((ignored, e) -> {
+                  if (e != null) {
+                      fail(transfer, e);
+                  }
+              });
+        return transfer;
+    }
+
+    /**
+     * Accepts the offered file, resumes it if a part of it has been received before.
+     * The partial file is verified on the file thread, as its received part is read back.
+     * The offer is declined if the file cannot be prepared, e.g. the same file of the same user is being received.
+     * */
+    public void accept(FileTransfer transfer) {
+        FileReceiver receiver = new FileReceiver(transfer, this, downloadDirectory);
+        CompletableFuture.runAsync(() -> {
+            long offset;
+            try {
+                if (isReceiving(transfer)) {
+                    throw new IOException(transfer.getFileName() + " of " + transfer.getPeerName() + " is already being received");
+                }
+                offset = receiver.prepare();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            transfer.setStatus(FileTransfer.Status.TRANSFERRING);
+            sender.apply(new FileOfferResponse(transfer.getId(), transfer.getPeer(), true, offset));
+            receiver.start(channelGroup, server, offset);
+        }, fileExecutor).whenComplete((ignored, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                if (transfer.getStatus() != FileTransfer.Status.TRANSFERRING) {
+                    sender.apply(new FileOfferResponse(transfer.getId(), transfer.getPeer(), false, 0));
+                }
+                fail(transfer, cause instanceof UncheckedIOException ? cause.getCause() : cause);
+            }
+        });
+    }
+
+    /**
+     * Checks whether another transfer is receiving into the partial file of the transfer.
+     * Called on the file thread only, which is where the transfers start receiving.
+     * */
+    private boolean isReceiving(FileTransfer transfer) {
+        String part = FileReceiver.partName(transfer);
+        for (FileTransfer other : transfers.values()) {
+            if (other != transfer && !other.isOutgoing() && other.getStatus() == FileTransfer.Status.TRANSFERRING
+                    && FileReceiver.partName(other).equals(part)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void decline(FileTransfer transfer) {
+        transfers.remove(transfer.getId());
+        transfer.setStatus(FileTransfer.Status.DECLINED);
+        sender.apply(new FileOfferResponse(transfer.getId(), transfer.getPeer(), false, 0));
+    }
+
+    /**
+     * Handles the offer of another user.
+     * */
+    public void onOffered(FileOffer offer) {
+        FileTransfer transfer = new FileTransfer(offer.getTransferId(), false, offer.getFrom(), offer.getSenderName(),
+                offer.getFileName(), offer.getSize(), offer.getModified(), null);
+        transfers.put(transfer.getId(), transfer);
+        eventSink.onFileOffered(transfer);
+    }
+
+    /**
+     * Starts sending the file once the offer is accepted.
+     * */
+    public void onAnswered(FileOfferResponse response) {
+        FileTransfer transfer = transfers.get(response.getTransferId());
+        if (transfer == null || !transfer.isOutgoing() || transfer.getStatus() != FileTransfer.Status.OFFERED) {
+            logger.warn("Unexpected answer to the file offer " + response.getTransferId());
+            return;
+        }
+        if (!response.isAccepted()) {
+            transfers.remove(transfer.getId());
+            transfer.setStatus(FileTransfer.Status.DECLINED);
+            report(transfer, true);
+            return;
+        }
+        if (response.getOffset() < 0 || response.getOffset() > transfer.getSize()) {
+            fail(transfer, new IOException("Invalid resume offset " + response.getOffset()));
+            return;
+        }
+        transfer.setStatus(FileTransfer.Status.TRANSFERRING);
+        transfer.setTransferred(response.getOffset());
+        report(transfer, true);
+        new FileSender(transfer, this).start(channelGroup, server, response.getOffset());
+    }
+
+    /**
+     * Opens a data connection: connects and writes the stream request.
+     * */
+    CompletableFuture<Void> openStream(AsynchronousSocketChannel channel, InetSocketAddress server, FileStreamRequest request) {
+        CompletableFuture<Void> opened = new CompletableFuture<>();
+        ByteBuffer header = new JsonCodec().encode(request);
+        channel.connect(server, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void result, Void attachment) {
+                channel.write(header, null, new CompletionHandler<Integer, Void>() {
+                    @Override
+                    public void completed(Integer written, Void attachment) {
+                        if (header.hasRemaining()) {
+                            channel.write(header, null, this);
+                        } else {
+                            opened.complete(null);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        opened.completeExceptionally(exc);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                opened.completeExceptionally(exc);
+            }
+        });
+        return opened;
+    }
+
+    /**
+     * Reports the progress unless reported recently, the final state is always reported.
+     * */
+    void report(FileTransfer transfer, boolean force) {
+        long now = System.nanoTime();
+        if (force || now - transfer.getReportedNanos() >= PROGRESS_INTERVAL * 1_000_000) {
+            transfer.setReportedNanos(now);
+            eventSink.onFileTransferUpdated(transfer);
+        }
+    }
+
+    void complete(FileTransfer transfer) {
+        transfers.remove(transfer.getId());
+        transfer.setStatus(FileTransfer.Status.COMPLETED);
+        report(transfer, true);
+    }
+
+    void fail(FileTransfer transfer, Throwable e) {
+        logger.warn("File transfer of " + transfer.getFileName() + " failed", e);
+        transfers.remove(transfer.getId());
+        transfer.fail(e);
+        report(transfer, true);
+    }
+}
@@ -62,8 +62,8 @@ public class ErrorDialogController {
      * */
     @FXML
     public void close() {
+        dialog.hide();
         if (exitOnClose) { closeAppCallback.closeApp(); }
-        else { dialog.hide(); }
     }
 
 }
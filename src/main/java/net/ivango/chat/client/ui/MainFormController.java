@@ -1,26 +1,48 @@
 package net.ivango.chat.client.ui;
 
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.input.KeyCode;
+import javafx.stage.FileChooser;
 import javafx.util.Callback;
+import net.ivango.chat.client.ClockSync;
+import net.ivango.chat.client.ConnectionState;
+import net.ivango.chat.client.ReceivedMessage;
+import net.ivango.chat.client.misc.ConnectionStateCallback;
+import net.ivango.chat.client.misc.FileTransferCallback;
 import net.ivango.chat.client.misc.IncomingMessageCallback;
+import net.ivango.chat.client.misc.RosterActivityCallback;
 import net.ivango.chat.client.misc.SendMessageCallback;
 import net.ivango.chat.client.misc.ServerTimeMessageCallback;
 import net.ivango.chat.client.misc.UserListUpdateCallback;
+import net.ivango.chat.client.store.MessageStore;
+import net.ivango.chat.client.store.StoredMessage;
+import net.ivango.chat.client.transfer.FileTransfer;
+import net.ivango.chat.client.transfer.FileTransferManager;
 import net.ivango.chat.common.responses.BroadCastUser;
+import net.ivango.chat.common.responses.IncomingMessage;
 import net.ivango.chat.common.responses.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.text.SimpleDateFormat;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller used by the main chat panel.
  * */
-public class MainFormController implements UserListUpdateCallback, IncomingMessageCallback, ServerTimeMessageCallback {
+public class MainFormController implements UserListUpdateCallback, IncomingMessageCallback, ServerTimeMessageCallback,
+        ConnectionStateCallback, FileTransferCallback {
 
     @FXML
     private Label userNameLabel;
@@ -36,16 +58,64 @@ public class MainFormController implements UserListUpdateCallback, IncomingMessa
     private ComboBox<User> receiverComboBox;
     @FXML
     private TextArea textArea;
+    @FXML
+    private TextField searchField;
+    @FXML
+    private Button sendFileButton;
+    @FXML
+    private Label transferStatus;
+    @FXML
+    private ProgressBar transferProgress;
+
+    /** messages kept in memory, older ones are archived off-heap */
+    private static final int HISTORY_WINDOW = 1000;
+    /** messages of the previous sessions shown on start */
+    private static final int RECENT_HISTORY = 200;
+    private static final int MAX_SEARCH_RESULTS = 500;
+    /** how long closing the form waits for the pending history writes, ms */
+    private static final long HISTORY_CLOSE_TIMEOUT = 2000;
+
+    private static Logger logger = LoggerFactory.getLogger(MainFormController.class);
 
     private SendMessageCallback callback;
-    private ObservableList<String> messages = FXCollections.observableArrayList();
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm, dd MMM yy");
+    private MessageHistory messages = new MessageHistory(HISTORY_WINDOW);
+    private RosterModel roster = new RosterModel();
+    /** immutable, so shared by all the forms */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("HH:mm, dd MMM yy").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter MESSAGE_TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+    /** the messages are stamped with the server time */
+    private ClockSync clock;
+    /** persistent history of the user on the server, null if it is unavailable, used by the history thread only */
+    private MessageStore store;
+    /** the history thread: the messages are written and searched off the FX thread, null if there is no history */
+    private ExecutorService historyExecutor;
+    /** the latest search, the results of an older one are dropped */
+    private int searchGeneration;
+    private String userName;
+    private FileTransferManager fileTransfers;
+    /** the transfer shown by the progress bar, the latest one started */
+    private FileTransfer shownTransfer;
 
     /**
-     * Initializes the user interface.
+     * Initializes the user interface, shows the latest messages of the history.
      * */
-    public void initialize (SendMessageCallback callback) {
+    public void initialize (SendMessageCallback callback, ClockSync clock, MessageStore store, FileTransferManager fileTransfers,
+                            RosterActivityCallback rosterActivityCallback) {
         this.callback = callback;
+        this.clock = clock;
+        this.store = store;
+        this.fileTransfers = fileTransfers;
+        if (store != null) {
+            historyExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chat-history");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        /* the user is about to pick from the user list, so it should be fresh */
+        receiverComboBox.setOnShowing(event -> rosterActivityCallback.onRosterInteraction());
+        activeUsersList.setOnMouseEntered(event -> rosterActivityCallback.onRosterInteraction());
+        sendFileButton.setOnAction(event -> sendFile());
         /* message is being sent upon pressing Enter */
         this.textArea.setOnKeyPressed(ke -> {
             if (ke.getCode().equals(KeyCode.ENTER)) {
@@ -75,12 +145,79 @@ public class MainFormController implements UserListUpdateCallback, IncomingMessa
             }
         );
         messageList.setItems(messages);
+        activeUsersList.setItems(roster.getUsers());
+        receiverComboBox.setItems(roster.getReceivers());
+
+        /* Enter searches the history, Esc returns to the chat */
+        searchField.setOnKeyPressed(ke -> {
+            if (ke.getCode().equals(KeyCode.ENTER)) {
+                search(searchField.getText());
+            } else if (ke.getCode().equals(KeyCode.ESCAPE)) {
+                searchField.setText("");
+                search("");
+            }
+        });
+        loadRecentHistory();
+    }
+
+    /**
+     * Reads the recent history before any message is shown, the history thread takes the store over afterwards.
+     * */
+    private void loadRecentHistory() {
+        if (store == null) {
+            return;
+        }
+        try {
+            List<String> lines = new ArrayList<>();
+            for (StoredMessage message : store.readRecent(RECENT_HISTORY)) {
+                lines.add(formatLine(message));
+            }
+            messages.addAll(lines);
+        } catch (IOException e) {
+            logger.error("Failed to read the message history", e);
+        }
+    }
+
+    /**
+     * Shows the history messages containing all the words of the query instead of the chat, the empty query returns to the chat.
+     * The history is searched by the history thread, the results are shown unless another search has started meanwhile.
+     * */
+    private void search(String query) {
+        int generation = ++searchGeneration;
+        if (historyExecutor == null || query.trim().isEmpty()) {
+            messageList.setItems(messages);
+            return;
+        }
+        historyExecutor.execute(() -> {
+            if (store == null) {
+                return;
+            }
+            try {
+                long start = System.nanoTime();
+                List<StoredMessage> found = store.search(query, MAX_SEARCH_RESULTS);
+                logger.debug("History search for '{}' took {} us.", query, (System.nanoTime() - start) / 1000);
+
+                List<String> lines = new ArrayList<>(found.size() + 1);
+                lines.add(found.size() + " message(s) found, press Esc to return to the chat");
+                for (StoredMessage message : found) {
+                    lines.add(formatLine(message));
+                }
+                Platform.runLater(() -> {
+                    if (generation == searchGeneration) {
+                        messageList.setItems(FXCollections.observableArrayList(lines));
+                    }
+                });
+            } catch (IOException e) {
+                logger.error("Failed to search the message history", e);
+            }
+        });
     }
 
     /**
      * Fills the initial user info: name, hist and port.
      * */
     public void fillUserInfo(String userName, String hostname, int port) {
+        this.userName = userName;
         userNameLabel.setText(userName);
         serverAdressLabel.setText(hostname + ":" + port);
     }
@@ -88,22 +225,50 @@ public class MainFormController implements UserListUpdateCallback, IncomingMessa
     @Override
     /**
      * Update the active user list and the receiver combobox.
-     * The lists are sorted alphabetically.
-     * A synthetic broadcast user is added to the list.
+     * The lists are sorted alphabetically, only the changed users are inserted/ removed.
+     * A synthetic broadcast user is added to the receiver list.
      * */
     public void onUserListUpdated(List<User> users) {
-        Collections.sort(users, (o1, o2) -> o1.getUserName().compareTo(o2.getUserName()));
-
-        activeUsersList.setItems(FXCollections.observableList(users));
+        User currentValue = receiverComboBox.getValue();
+        User selectedUser = activeUsersList.getSelectionModel().getSelectedItem();
+        roster.setUsers(users);
+        restoreReceiver(currentValue);
+        restoreSelectedUser(selectedUser);
+    }
 
+    @Override
+    /**
+     * Applies the presence changes pushed by the server to the current user list.
+     * */
+    public void onUserListChanged(List<User> joined, List<User> left) {
         User currentValue = receiverComboBox.getValue();
-        ArrayList<User> receiverList = new ArrayList<>(users);
-        receiverList.add(BroadCastUser.INSTANCE);
-        Collections.sort(receiverList, (o1, o2) -> o1.getUserName().compareTo(o2.getUserName()));
+        User selectedUser = activeUsersList.getSelectionModel().getSelectedItem();
+        roster.applyChanges(joined, left);
+        restoreReceiver(currentValue);
+        restoreSelectedUser(selectedUser);
+    }
 
-        receiverComboBox.setItems(FXCollections.observableList(receiverList));
-        if (currentValue != null && receiverList.contains(currentValue)) {
-            receiverComboBox.setValue(currentValue);
+    /**
+     * Keeps the chosen receiver selected if the user is still online.
+     * */
+    private void restoreReceiver(User currentValue) {
+        if (currentValue != null) {
+            User current = roster.find(currentValue);
+            if (current != null && current != receiverComboBox.getValue()) {
+                receiverComboBox.setValue(current);
+            }
+        }
+    }
+
+    /**
+     * Keeps the user selected in the active user list if still online, a user renamed meanwhile is a new instance.
+     * */
+    private void restoreSelectedUser(User selectedUser) {
+        if (selectedUser != null) {
+            User current = roster.find(selectedUser);
+            if (current != null && current != activeUsersList.getSelectionModel().getSelectedItem()) {
+                activeUsersList.getSelectionModel().select(current);
+            }
         }
     }
 
@@ -111,11 +276,7 @@ public class MainFormController implements UserListUpdateCallback, IncomingMessa
      * Shows the message sent by the user himself.
      * */
     private void addOwnMessage(String message, boolean broadcast) {
-        if (broadcast) {
-            messages.add("Me to all: " + message);
-        } else {
-            messages.add("Me: " + message);
-        }
+        messages.add(formatLine(store(clock.serverTimeMillis(), userName, message, broadcast, true)));
     }
 
     /**
@@ -142,22 +303,196 @@ public class MainFormController implements UserListUpdateCallback, IncomingMessa
     }
 
     /**
-     * Shows the incoming message in the message box.
+     * Offers the chosen file to the chosen user, a file is sent to a single user only.
+     * */
+    private void sendFile() {
+        User receiver = receiverComboBox.getValue();
+        if (receiver == null || receiver instanceof BroadCastUser) {
+            receiverComboBox.show();
+            return;
+        }
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Send a file to " + receiver.getUserName());
+        File file = fileChooser.showOpenDialog(sendFileButton.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        try {
+            FileTransfer transfer = fileTransfers.offer(file.toPath(), receiver);
+            messages.add("Offered " + transfer.getFileName() + " (" + formatSize(transfer.getSize()) + ") to "
+                    + receiver.getUserName() + ", waiting for the answer...");
+        } catch (IOException e) {
+            logger.error("Failed to offer the file " + file, e);
+            messages.add("Failed to send " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Asks the user whether to accept the file, the pulse is not held up by the dialog.
+     * */
+    @Override
+    public void onFileOffered(FileTransfer transfer) {
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION,
+                transfer.getPeerName() + " sends you " + transfer.getFileName() + " (" + formatSize(transfer.getSize()) + "). Accept?",
+                ButtonType.YES, ButtonType.NO);
+        alert.setTitle("Incoming file");
+        alert.setHeaderText(null);
+        alert.setOnHidden(event -> {
+            if (alert.getResult() == ButtonType.YES) {
+                fileTransfers.accept(transfer);
+            } else {
+                fileTransfers.decline(transfer);
+                messages.add("Declined " + transfer.getFileName() + " from " + transfer.getPeerName() + ".");
+            }
+        });
+        alert.show();
+    }
+
+    /**
+     * Shows the progress of the latest transfer, the finished transfers are reported in the message box.
+     * */
+    @Override
+    public void onFileTransferUpdated(FileTransfer transfer) {
+        String name = transfer.getFileName();
+        switch (transfer.getStatus()) {
+            case TRANSFERRING:
+                shownTransfer = transfer;
+                transferProgress.setVisible(true);
+                transferProgress.setProgress(transfer.getSize() == 0 ? 1 : (double) transfer.getTransferred() / transfer.getSize());
+                transferStatus.setText((transfer.isOutgoing() ? "Sending " : "Receiving ") + name + ", "
+                        + formatSize(transfer.getTransferred()) + " of " + formatSize(transfer.getSize()));
+                return;
+            case COMPLETED:
+                messages.add(transfer.isOutgoing()
+                        ? "Sent " + name + " to " + transfer.getPeerName() + "."
+                        : "Received " + name + " from " + transfer.getPeerName() + ", saved to " + transfer.getFile() + ".");
+                break;
+            case DECLINED:
+                messages.add(transfer.getPeerName() + " declined " + name + ".");
+                break;
+            case FAILED:
+                messages.add("Transfer of " + name + " failed: " + transfer.getFailure().getMessage());
+                break;
+            default:
+                return;
+        }
+        if (shownTransfer == transfer) {
+            shownTransfer = null;
+            transferProgress.setVisible(false);
+            transferStatus.setText("");
+        }
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        return bytes < 1024 * 1024
+                ? String.format("%.1f KB", bytes / 1024.0)
+                : String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    /**
+     * Shows the incoming messages in the message box, the whole batch is added at once.
+     * */
+    @Override
+    public void onMessageReceived(List<ReceivedMessage> incomingMessages) {
+        List<String> lines = new ArrayList<>(incomingMessages.size());
+        for (ReceivedMessage received : incomingMessages) {
+            IncomingMessage message = received.getMessage();
+            lines.add(formatLine(store(received.getServerTime(), message.getSenderName(), message.getMessage(),
+                    message.isBroadcast(), false)));
+        }
+        messages.addAll(lines);
+    }
+
+    /**
+     * Hands the message to the history thread to append, returns the message to show.
+     * The message is shown anyway if the history fails.
+     * */
+    private StoredMessage store(long time, String sender, String text, boolean broadcast, boolean own) {
+        StoredMessage message = new StoredMessage(-1, time, sender == null ? "" : sender, text == null ? "" : text, broadcast, own);
+        if (historyExecutor != null) {
+            historyExecutor.execute(() -> append(message));
+        }
+        return message;
+    }
+
+    /**
+     * Appends the message to the history, called by the history thread.
+     * */
+    private void append(StoredMessage message) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.append(message.getTime(), message.getSender(), message.getText(), message.isBroadcast(), message.isOwn());
+        } catch (IOException e) {
+            logger.error("Failed to save the message, the history is disabled", e);
+            store.close();
+            store = null;
+        }
+    }
+
+    /**
+     * Returns the message line: the server time, so the time is the same for all the users, the sender and the text.
+     * */
+    private static String formatLine(StoredMessage message) {
+        String time = "[" + MESSAGE_TIME_FORMAT.format(Instant.ofEpochMilli(message.getTime())) + "] ";
+        String sender = message.isOwn() ? "Me" : message.getSender();
+        return time + sender + (message.isBroadcast() ? " to all: " : ": ") + message.getText();
+    }
+
+    /**
+     * Notifies user about the lost/ restored connection.
      * */
     @Override
-    public void onMessageReceived(String sender, String message, boolean broadcast) {
-        if (broadcast) {
-            messages.add(sender + " to all: " + message);
-        } else {
-            messages.add(sender + ": " + message);
+    public void onConnectionStateChanged(ConnectionState state) {
+        switch (state) {
+            case RECONNECTING:
+                messages.add("Connection to the server lost, reconnecting...");
+                break;
+            case CONNECTED:
+                messages.add("Connection to the server restored.");
+                break;
+            case CLOSED:
+                messages.add("Failed to restore the connection to the server.");
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Releases the resources held by the form.
+     * */
+    public void close() {
+        messages.close();
+        if (historyExecutor != null) {
+            /* the pending messages are written first */
+            historyExecutor.execute(() -> {
+                if (store != null) {
+                    store.close();
+                    store = null;
+                }
+            });
+            historyExecutor.shutdown();
+            try {
+                if (!historyExecutor.awaitTermination(HISTORY_CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    logger.warn("The message history has not been closed in {} ms", HISTORY_CLOSE_TIMEOUT);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            historyExecutor = null;
         }
     }
 
     /**
-     * Shows the server time when connection was established.
+     * Shows the server time, updated on every clock resync.
      * */
     @Override
     public void onServerTimeReceived(long utcTimestamp) {
-        serverTime.setText(dateFormat.format(new Date(utcTimestamp)));
+        serverTime.setText(DATE_FORMAT.format(Instant.ofEpochMilli(utcTimestamp)));
     }
 }
\ No newline at end of file
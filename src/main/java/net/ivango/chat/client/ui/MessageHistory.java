@@ -0,0 +1,164 @@
+package net.ivango.chat.client.ui;
+
+import javafx.collections.ObservableListBase;
+import net.ivango.chat.client.store.MessageArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Message list backing the message list view, memory used by it stays flat regardless of the session length.
+ * The latest lines are kept in a bounded in-memory window, older ones are spilled to the off-heap archive.
+ * The list still exposes the whole history: the list view asks only for the visible rows,
+ * and the archived ones are paged in lazily when user scrolls back.
+ * Must be used from the Java FX thread only.
+ * */
+public class MessageHistory extends ObservableListBase<String> {
+
+    private static final int PAGE_SIZE = 128;
+    private static final int MAX_CACHED_PAGES = 4;
+    private static final String UNAVAILABLE = "<message is not available>";
+
+    private static Logger logger = LoggerFactory.getLogger(MessageHistory.class);
+
+    /** ring buffer of the latest lines */
+    private final String[] window;
+    private int windowStart, windowSize;
+
+    private MessageArchive archive;
+    /** lines which left the window, the ones failed to be archived are shown as unavailable */
+    private long archivedSize;
+    /** recently read archive pages, keyed by the page number */
+    private final Map<Long, String[]> pages = new LinkedHashMap<Long, String[]>(MAX_CACHED_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String[]> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+
+    public MessageHistory(int windowCapacity) {
+        this.window = new String[windowCapacity];
+        try {
+            this.archive = new MessageArchive();
+        } catch (IOException e) {
+            /* the history is still usable, only the lines leaving the window become unavailable */
+            logger.error("Failed to create the message archive, old messages will be dropped", e);
+        }
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        if (index >= archivedSize) {
+            return window[(windowStart + (int) (index - archivedSize)) % window.length];
+        }
+        String[] page = getPage(index / PAGE_SIZE);
+        return page[index % PAGE_SIZE];
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, archivedSize + windowSize);
+    }
+
+    @Override
+    public boolean add(String line) {
+        int from = size();
+        append(line);
+        beginChange();
+        nextAdd(from, size());
+        endChange();
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends String> lines) {
+        if (lines.isEmpty()) {
+            return false;
+        }
+        int from = size();
+        for (String line : lines) {
+            append(line);
+        }
+        beginChange();
+        nextAdd(from, size());
+        endChange();
+        return true;
+    }
+
+    /**
+     * Releases the archive.
+     * */
+    public void close() {
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the message archive", e);
+            }
+        }
+    }
+
+    /**
+     * Puts the line to the window, the oldest line is spilled to the archive when the window is full.
+     * */
+    private void append(String line) {
+        if (windowSize == window.length) {
+            spill(window[windowStart]);
+            window[windowStart] = line;
+            windowStart = (windowStart + 1) % window.length;
+        } else {
+            window[(windowStart + windowSize) % window.length] = line;
+            windowSize++;
+        }
+    }
+
+    private void spill(String line) {
+        archivedSize++;
+        if (archive == null) {
+            return;
+        }
+        try {
+            archive.append(line);
+        } catch (IOException e) {
+            logger.error("Failed to archive the message, old messages will be unavailable", e);
+            close();
+            archive = null;
+            pages.clear();
+        }
+    }
+
+    /**
+     * Returns the archived page, reads it from the archive if it is not cached.
+     * The last page grows as the lines are spilled, so it is re-read once it has new lines.
+     * */
+    private String[] getPage(long pageNumber) {
+        long from = pageNumber * PAGE_SIZE;
+        int count = (int) Math.min(PAGE_SIZE, archivedSize - from);
+        String[] page = pages.get(pageNumber);
+        if (page != null && page[count - 1] != null) {
+            return page;
+        }
+        int available = archive == null ? 0 : (int) Math.max(0, Math.min(count, archive.size() - from));
+
+        page = new String[PAGE_SIZE];
+        try {
+            if (available > 0) {
+                archive.read(from, available, page);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read the message archive", e);
+            available = 0;
+        }
+        Arrays.fill(page, available, count, UNAVAILABLE);
+        pages.put(pageNumber, page);
+        return page;
+    }
+}
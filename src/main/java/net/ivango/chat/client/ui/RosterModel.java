@@ -0,0 +1,199 @@
+package net.ivango.chat.client.ui;
+
+import javafx.collections.ModifiableObservableListBase;
+import javafx.collections.ObservableList;
+import net.ivango.chat.common.responses.BroadCastUser;
+import net.ivango.chat.common.responses.User;
+
+import java.util.*;
+
+/**
+ * Sorted user list keyed by the user address, backs the active user list and the receiver combobox.
+ * A new user list is diffed against the current state and only the insertions and removals are applied,
+ * so the list views keep their cells, selection and scroll position. The changes of an update are fired
+ * as a single change per list. A large diff is merged into the list in a single pass
+ * instead of shifting the list for every insertion and removal, the unchanged users stay in place.
+ * The receiver list additionally holds the synthetic broadcast user.
+ * Must be used from the Java FX thread only.
+ * */
+public class RosterModel {
+
+    /** a diff larger than that is merged in a single pass, every insertion or removal shifts the list */
+    private static final int MAX_INCREMENTAL_CHANGES = 128;
+
+    /** alphabetical order, the address makes it total for the users with the same name */
+    private static final Comparator<User> ORDER = Comparator
+            .comparing(User::getUserName, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(User::getAddress, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+    private final BatchList users = new BatchList();
+    private final BatchList receivers = new BatchList();
+    private final Map<String, User> usersByAddress = new HashMap<>();
+
+    public RosterModel() {
+        receivers.add(BroadCastUser.INSTANCE);
+    }
+
+    public ObservableList<User> getUsers() { return users; }
+
+    public ObservableList<User> getReceivers() { return receivers; }
+
+    /**
+     * Returns the current instance of the user with the same address, null if the user is not in the list.
+     * */
+    public User find(User user) {
+        if (user instanceof BroadCastUser) {
+            return user;
+        }
+        return usersByAddress.get(user.getAddress());
+    }
+
+    /**
+     * Replaces the user list, only the difference to the current one is applied.
+     * */
+    public void setUsers(List<User> newUsers) {
+        Map<String, User> newByAddress = new HashMap<>(newUsers.size() * 2);
+        for (User user : newUsers) {
+            newByAddress.put(user.getAddress(), user);
+        }
+
+        List<User> left = new ArrayList<>();
+        for (User user : usersByAddress.values()) {
+            if (!newByAddress.containsKey(user.getAddress())) {
+                left.add(user);
+            }
+        }
+        List<User> joined = new ArrayList<>();
+        for (User user : newByAddress.values()) {
+            User current = usersByAddress.get(user.getAddress());
+            if (current == null || !Objects.equals(current.getUserName(), user.getUserName())) {
+                joined.add(user);
+            }
+        }
+
+        if (joined.size() + left.size() > MAX_INCREMENTAL_CHANGES) {
+            merge(newByAddress);
+        } else {
+            applyChanges(joined, left);
+        }
+    }
+
+    /**
+     * Applies the presence changes: the joined users are added or replaced, the left ones are removed.
+     * */
+    public void applyChanges(List<User> joined, List<User> left) {
+        users.beginBatch();
+        receivers.beginBatch();
+        try {
+            for (User user : left) {
+                remove(user.getAddress());
+            }
+            for (User user : joined) {
+                remove(user.getAddress());
+                insert(user);
+            }
+        } finally {
+            users.endBatch();
+            receivers.endBatch();
+        }
+    }
+
+    private void remove(String address) {
+        User current = usersByAddress.remove(address);
+        if (current != null) {
+            users.remove(Collections.binarySearch(users, current, ORDER));
+            receivers.remove(Collections.binarySearch(receivers, current, ORDER));
+        }
+    }
+
+    private void insert(User user) {
+        usersByAddress.put(user.getAddress(), user);
+        users.add(-Collections.binarySearch(users, user, ORDER) - 1, user);
+        receivers.add(-Collections.binarySearch(receivers, user, ORDER) - 1, user);
+    }
+
+    /**
+     * Merges the new user list into both lists, the unchanged users keep their instances.
+     * */
+    private void merge(Map<String, User> newByAddress) {
+        List<User> sorted = new ArrayList<>(newByAddress.size() + 1);
+        for (User user : newByAddress.values()) {
+            User current = usersByAddress.get(user.getAddress());
+            sorted.add(current != null && Objects.equals(current.getUserName(), user.getUserName()) ? current : user);
+        }
+        sorted.sort(ORDER);
+        usersByAddress.clear();
+        for (User user : sorted) {
+            usersByAddress.put(user.getAddress(), user);
+        }
+        users.merge(sorted);
+
+        sorted.add(-Collections.binarySearch(sorted, BroadCastUser.INSTANCE, ORDER) - 1, BroadCastUser.INSTANCE);
+        receivers.merge(sorted);
+    }
+
+    /**
+     * Array backed list which fires the changes made within a batch as a single change.
+     * */
+    private static class BatchList extends ModifiableObservableListBase<User> {
+        private List<User> elements = new ArrayList<>();
+
+        void beginBatch() { beginChange(); }
+
+        void endBatch() { endChange(); }
+
+        /**
+         * Replaces the content with the given list, both sorted by the roster order, as a single change.
+         * The elements equal in the order are kept, the runs of the others are removed and inserted.
+         * */
+        void merge(List<User> sorted) {
+            List<User> merged = new ArrayList<>(sorted.size());
+            beginChange();
+            try {
+                int i = 0, j = 0;
+                while (i < elements.size() || j < sorted.size()) {
+                    /* the positions before are final, so the changes are reported in the merged positions */
+                    int position = merged.size();
+                    List<User> removed = null;
+                    while (i < elements.size() && (j == sorted.size() || ORDER.compare(elements.get(i), sorted.get(j)) < 0)) {
+                        if (removed == null) {
+                            removed = new ArrayList<>();
+                        }
+                        removed.add(elements.get(i++));
+                    }
+                    if (removed != null) {
+                        nextRemove(position, removed);
+                    }
+                    while (j < sorted.size() && (i == elements.size() || ORDER.compare(elements.get(i), sorted.get(j)) > 0)) {
+                        merged.add(sorted.get(j++));
+                    }
+                    if (merged.size() > position) {
+                        nextAdd(position, merged.size());
+                    }
+                    if (i < elements.size() && j < sorted.size() && ORDER.compare(elements.get(i), sorted.get(j)) == 0) {
+                        merged.add(elements.get(i++));
+                        j++;
+                    }
+                }
+                elements = merged;
+            } finally {
+                endChange();
+            }
+        }
+
+        @Override
+        public User get(int index) { return elements.get(index); }
+
+        @Override
+        public int size() { return elements.size(); }
+
+        @Override
+        protected void doAdd(int index, User element) { elements.add(index, element); }
+
+        @Override
+        protected User doSet(int index, User element) { return elements.set(index, element); }
+
+        @Override
+        protected User doRemove(int index) { return elements.remove(index); }
+    }
+}
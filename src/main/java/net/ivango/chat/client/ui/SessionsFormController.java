@@ -0,0 +1,44 @@
+package net.ivango.chat.client.ui;
+
+import javafx.fxml.FXML;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
+import javafx.scene.layout.Pane;
+import net.ivango.chat.client.misc.NewSessionCallback;
+
+/**
+ * Controller of the window holding a tab per session.
+ * */
+public class SessionsFormController {
+
+    @FXML
+    private TabPane sessionTabs;
+
+    private NewSessionCallback newSessionCallback;
+
+    /**
+     * Initializes the user interface.
+     * */
+    public void initialize(NewSessionCallback newSessionCallback) {
+        this.newSessionCallback = newSessionCallback;
+    }
+
+    /**
+     * Adds the tab showing the main form of a session and selects it.
+     * */
+    public Tab addSession(String title, Pane mainLayout) {
+        Tab tab = new Tab(title, mainLayout);
+        sessionTabs.getTabs().add(tab);
+        sessionTabs.getSelectionModel().select(tab);
+        return tab;
+    }
+
+    public void removeSession(Tab tab) {
+        sessionTabs.getTabs().remove(tab);
+    }
+
+    @FXML
+    public void newConnectionPressed() {
+        newSessionCallback.onNewSessionRequested();
+    }
+}
@@ -0,0 +1,69 @@
+package net.ivango.chat.client.ui;
+
+import javafx.fxml.FXMLLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Loads the FXML views, the ones needed next are parsed ahead of time in a background thread.
+ * Java FX allows building a scene graph off the FX thread until it is attached to a shown window,
+ * so the parsing, the class loading and the control creation are done while the user looks at another form.
+ * A preloaded view is used once, the caller preloads another one if it needs more.
+ * */
+public class ViewLoader {
+
+    private final Class<?> resourceBase;
+    private final ConcurrentMap<String, Queue<FXMLLoader>> preloaded = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-view-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static Logger logger = LoggerFactory.getLogger(ViewLoader.class);
+
+    /**
+     * Creates the loader of the views located relative to the given class.
+     * */
+    public ViewLoader(Class<?> resourceBase) {
+        this.resourceBase = resourceBase;
+    }
+
+    /**
+     * Parses the view in the background, the future completes once it is ready.
+     * */
+    public CompletableFuture<Void> preload(String view) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                FXMLLoader loader = parse(view);
+                preloaded.computeIfAbsent(view, ignored -> new ConcurrentLinkedQueue<>()).offer(loader);
+            } catch (IOException | RuntimeException e) {
+                /* loaded on demand then, the error is reported to the user if it happens again */
+                logger.warn("Failed to preload " + view, e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Returns the loaded view, a preloaded one if available.
+     * */
+    public FXMLLoader load(String view) throws IOException {
+        Queue<FXMLLoader> ready = preloaded.get(view);
+        FXMLLoader loader = ready == null ? null : ready.poll();
+        return loader != null ? loader : parse(view);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private FXMLLoader parse(String view) throws IOException {
+        FXMLLoader loader = new FXMLLoader(resourceBase.getResource(view));
+        loader.load();
+        return loader;
+    }
+}
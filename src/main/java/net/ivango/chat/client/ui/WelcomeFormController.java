@@ -5,17 +5,18 @@ import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
+import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
+import net.ivango.chat.client.ConnectionStage;
+import net.ivango.chat.client.misc.ConnectionProgressCallback;
 import net.ivango.chat.client.misc.ErrorDialogCallback;
 import net.ivango.chat.client.misc.WelcomeCallback;
 
-import java.net.InetSocketAddress;
-
 /**
  * Controller used by the welcome UI form.
  * */
-public class WelcomeFormController {
+public class WelcomeFormController implements ConnectionProgressCallback {
 
     @FXML
     private TextField userNameLabel;
@@ -23,6 +24,8 @@ public class WelcomeFormController {
     private TextField serverAdressLabel;
     @FXML
     private Button connectButton;
+    @FXML
+    private Label statusLabel;
 
     private WelcomeCallback welcomeCallback;
     private ErrorDialogCallback errorDialogCallback;
@@ -58,6 +61,10 @@ public class WelcomeFormController {
      **/
     @FXML
     public void connectPressed() {
+        if (connectButton.isDisabled()) {
+            /* connection is already in progress */
+            return;
+        }
         /* performing the input validation */
         String userName = userNameLabel.getText();
         String serverAddress = serverAdressLabel.getText();
@@ -80,10 +87,9 @@ public class WelcomeFormController {
             String [] str = serverAddress.split(":");
             hostname = str[0];
             port = Integer.valueOf(str[1]);
-            /* checking if the address is correct */
-            InetSocketAddress address = new InetSocketAddress(hostname, port);
-            if (address.isUnresolved()) {
-                errorMessage += "Server is not reachable.\n";
+            /* the address is resolved by the connection pipeline, not to block the UI */
+            if (hostname.isEmpty() || port <= 0 || port > 0xFFFF) {
+                errorMessage += "Server address is not valid.\n";
                 validInput = false;
             }
         } catch (Exception e) {
@@ -106,4 +112,23 @@ public class WelcomeFormController {
         }
     }
 
+    /**
+     * Locks the input while the connection is being established.
+     * */
+    public void setConnecting(boolean connecting) {
+        connectButton.setDisable(connecting);
+        userNameLabel.setDisable(connecting);
+        serverAdressLabel.setDisable(connecting);
+        if (!connecting) {
+            statusLabel.setText("");
+        }
+    }
+
+    /**
+     * Shows the current connection stage.
+     * */
+    @Override
+    public void onConnectionProgress(ConnectionStage stage) {
+        statusLabel.setText(stage.getDescription());
+    }
 }
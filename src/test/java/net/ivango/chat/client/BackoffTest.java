@@ -0,0 +1,33 @@
+package net.ivango.chat.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+
+    @Test
+    public void delaysGrowWithinJitterUpToMax() {
+        for (int run = 0; run < 100; run++) {
+            Backoff backoff = new Backoff(100, 5000);
+            long cap = 100;
+            for (int attempt = 0; attempt < 40; attempt++) {
+                long delay = backoff.nextDelay();
+                assertTrue(delay + " in [" + cap / 2 + ", " + cap + "]", delay >= cap / 2 && delay <= cap);
+                cap = Math.min(5000, cap * 2);
+            }
+            assertEquals(40, backoff.getAttempts());
+        }
+    }
+
+    @Test
+    public void resetStartsOver() {
+        Backoff backoff = new Backoff(100, 5000);
+        for (int i = 0; i < 10; i++) {
+            backoff.nextDelay();
+        }
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.nextDelay() <= 100);
+    }
+}
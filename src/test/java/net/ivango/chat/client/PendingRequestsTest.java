@@ -0,0 +1,102 @@
+package net.ivango.chat.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class PendingRequestsTest {
+
+    private static final long TIMEOUT = 100;
+
+    private ScheduledExecutorService scheduler;
+    private PendingRequests requests;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        requests = new PendingRequests(scheduler, TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void completesTheOldestRequestOfTheType() throws Exception {
+        CompletableFuture<String> first = requests.register("A", String.class);
+        CompletableFuture<String> second = requests.register("A", String.class);
+        CompletableFuture<Integer> other = requests.register("B", Integer.class);
+
+        assertTrue(requests.complete(String.class, "1"));
+        assertTrue(requests.complete(Integer.class, 3));
+        assertTrue(requests.complete(String.class, "2"));
+
+        assertEquals("1", first.get());
+        assertEquals("2", second.get());
+        assertEquals(Integer.valueOf(3), other.get());
+        assertFalse(requests.complete(String.class, "pushed"));
+    }
+
+    @Test
+    public void lateResponseOfTimedOutRequestIsSkipped() throws Exception {
+        CompletableFuture<String> expired = requests.register("A", String.class);
+        awaitTimeout(expired);
+        CompletableFuture<String> next = requests.register("A", String.class);
+
+        assertTrue(requests.complete(String.class, "late"));
+        assertFalse(next.isDone());
+        assertTrue(requests.complete(String.class, "answer"));
+        assertEquals("answer", next.get());
+    }
+
+    @Test
+    public void lateResponseOfDroppedRequestConsumesItsTombstone() throws Exception {
+        CompletableFuture<String> expired = requests.register("A", String.class);
+        awaitTimeout(expired);
+        /* dropped by the next registration once expired twice the timeout ago */
+        Thread.sleep(3 * TIMEOUT);
+        CompletableFuture<String> next = requests.register("A", String.class);
+
+        assertTrue(requests.complete(String.class, "late"));
+        assertFalse(next.isDone());
+        assertTrue(requests.complete(String.class, "answer"));
+        assertEquals("answer", next.get());
+    }
+
+    @Test
+    public void failAllFailsThePendingRequestsAndForgetsTheTombstones() throws Exception {
+        CompletableFuture<String> expired = requests.register("A", String.class);
+        awaitTimeout(expired);
+        Thread.sleep(3 * TIMEOUT);
+        CompletableFuture<String> pending = requests.register("A", String.class);
+
+        requests.failAll(new ClosedChannelException());
+        try {
+            pending.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+
+        CompletableFuture<String> fresh = requests.register("A", String.class);
+        assertTrue(requests.complete(String.class, "answer"));
+        assertEquals("answer", fresh.get());
+    }
+
+    private static void awaitTimeout(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        } catch (TimeoutException e) {
+            fail("the request has not timed out");
+        }
+    }
+}
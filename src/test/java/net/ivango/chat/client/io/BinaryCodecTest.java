@@ -0,0 +1,74 @@
+package net.ivango.chat.client.io;
+
+import com.google.gson.Gson;
+import net.ivango.chat.client.protocol.FileOffer;
+import net.ivango.chat.client.protocol.MessageTypes;
+import net.ivango.chat.client.protocol.ServerCapabilities;
+import net.ivango.chat.client.protocol.UserLeftEvent;
+import net.ivango.chat.common.requests.GetTimeRequest;
+import net.ivango.chat.common.requests.Message;
+import net.ivango.chat.common.requests.SendMessageRequest;
+import net.ivango.chat.common.responses.IncomingMessage;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BinaryCodecTest {
+
+    private static final Gson gson = new Gson();
+
+    private final BinaryCodec codec = new BinaryCodec();
+
+    @Test
+    public void everyMessageTypeHasBinaryLayout() {
+        for (int id = 0; MessageTypes.typeOf(id) != null; id++) {
+            assertNotNull(BinarySchema.of(MessageTypes.typeOf(id)));
+        }
+    }
+
+    @Test
+    public void roundTripsMessages() throws Exception {
+        Message[] messages = {
+                new SendMessageRequest("/10.0.0.1:5000", "hi é中", true),
+                new GetTimeRequest(),
+                DeflateCodecTest.users(100),
+                new ServerCapabilities(Arrays.asList(ServerCapabilities.PRESENCE, "codec:binary")),
+                gson.fromJson("{\"user\":{\"userName\":\"bob\"}}", UserLeftEvent.class),
+                new FileOffer("id", "/10.0.0.1:5000", "file.txt", 5_000_000_000L, 1_700_000_000_000L)
+        };
+        for (Message message : messages) {
+            ByteBuffer body = DeflateCodecTest.body(codec.encode(message));
+            assertEquals(message.getClass(), codec.peekType(body));
+            Message decoded = codec.decode(body);
+            assertEquals(message.getClass(), decoded.getClass());
+            assertEquals(gson.toJson(message), gson.toJson(decoded));
+        }
+    }
+
+    @Test
+    public void writesFieldsInPinnedOrder() {
+        IncomingMessage message = gson.fromJson(
+                "{\"from\":\"f\",\"message\":\"m\",\"senderName\":\"s\",\"broadcast\":true}", IncomingMessage.class);
+        ByteBuffer body = codec.encodeBody(message);
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        /* the type, broadcast, from, message, senderName, the strings are prefixed with their length + 1 */
+        byte[] expected = {(byte) MessageTypes.idOf(IncomingMessage.class), 1, 2, 'f', 2, 'm', 2, 's'};
+        assertArrayEquals(expected, bytes);
+    }
+
+    @Test(expected = MalformedMessageException.class)
+    public void rejectsTruncatedFrame() throws Exception {
+        ByteBuffer body = DeflateCodecTest.body(codec.encode(new SendMessageRequest("to", "text", false)));
+        body.limit(body.limit() - 1);
+        codec.decode(body);
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void rejectsUnknownType() throws Exception {
+        codec.decode(ByteBuffer.wrap(new byte[] {100}));
+    }
+}
@@ -0,0 +1,90 @@
+package net.ivango.chat.client.io;
+
+import com.google.gson.Gson;
+import net.ivango.chat.common.responses.GetUsersResponse;
+import net.ivango.chat.common.responses.IncomingMessage;
+import net.ivango.chat.common.responses.User;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class DeflateCodecTest {
+
+    private static final Gson gson = new Gson();
+
+    @Test
+    public void roundTripsLargeMessageDeflated() throws Exception {
+        for (MessageCodec inner : new MessageCodec[] {new JsonCodec(), new BinaryCodec()}) {
+            try (DeflateCodec codec = new DeflateCodec(inner, DeflateCodec.DEFAULT_THRESHOLD)) {
+                GetUsersResponse users = users(500);
+                ByteBuffer frame = codec.encode(users);
+                assertTrue(frame.remaining() < inner.encode(users).remaining() / 2);
+
+                GetUsersResponse decoded = (GetUsersResponse) codec.decode(body(frame));
+                assertEquals(500, decoded.getUsers().size());
+                for (int i = 0; i < 500; i++) {
+                    User user = decoded.getUsers().get(i);
+                    assertEquals("user" + i, user.getUserName());
+                    assertEquals("/10.0." + i / 256 + "." + i % 256 + ":5000", user.getAddress());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsShortMessageAsIs() throws Exception {
+        try (DeflateCodec codec = new DeflateCodec(new BinaryCodec(), DeflateCodec.DEFAULT_THRESHOLD)) {
+            IncomingMessage message = gson.fromJson(
+                    "{\"from\":\"/10.0.0.1:5000\",\"message\":\"hi\",\"senderName\":\"bob\",\"broadcast\":true}",
+                    IncomingMessage.class);
+            ByteBuffer frame = body(codec.encode(message));
+            assertEquals(0, frame.get(frame.position()));
+            assertEquals(IncomingMessage.class, codec.peekType(frame));
+
+            IncomingMessage decoded = (IncomingMessage) codec.decode(frame);
+            assertEquals("/10.0.0.1:5000", decoded.getFrom());
+            assertEquals("hi", decoded.getMessage());
+            assertEquals("bob", decoded.getSenderName());
+            assertTrue(decoded.isBroadcast());
+        }
+    }
+
+    @Test(expected = MalformedMessageException.class)
+    public void rejectsDeflatedMessageOfAnotherSize() throws Exception {
+        try (DeflateCodec codec = new DeflateCodec(new JsonCodec(), DeflateCodec.DEFAULT_THRESHOLD)) {
+            ByteBuffer frame = body(codec.encode(users(50)));
+            /* the original length follows the flags and the type, both a single byte */
+            frame.put(frame.position() + 2, (byte) 1);
+            codec.decode(frame);
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void closeEndsTheZlibStreams() {
+        DeflateCodec codec = new DeflateCodec(new JsonCodec(), DeflateCodec.DEFAULT_THRESHOLD);
+        codec.close();
+        codec.encode(users(50));
+    }
+
+    static GetUsersResponse users(int count) {
+        StringBuilder json = new StringBuilder("{\"users\":[");
+        for (int i = 0; i < count; i++) {
+            json.append(i == 0 ? "" : ",")
+                .append("{\"userName\":\"user").append(i)
+                .append("\",\"address\":\"/10.0.").append(i / 256).append('.').append(i % 256).append(":5000\"}");
+        }
+        return gson.fromJson(json.append("]}").toString(), GetUsersResponse.class);
+    }
+
+    /**
+     * Strips the varint length prefix off the frame.
+     * */
+    static ByteBuffer body(ByteBuffer frame) throws MalformedMessageException {
+        ByteBuffer body = frame.duplicate();
+        long length = BinarySchema.readVarint(body);
+        assertEquals(length, body.remaining());
+        return body.slice();
+    }
+}
@@ -0,0 +1,143 @@
+package net.ivango.chat.client.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    private static final String[] MESSAGES = {
+            "{\"className\":\"a\",\"body\":{\"text\":\"}{ \\\" ][\"}}",
+            "{\"className\":\"b\",\"body\":{\"users\":[{\"userName\":\"x\"},{\"userName\":\"y\"}]}}",
+            "{}"
+    };
+
+    private final BufferPool bufferPool = new BufferPool(64, 4);
+
+    @Test
+    public void jsonSplitsMergedFrames() throws IOException {
+        byte[] stream = String.join(" \n", MESSAGES).getBytes(StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList(MESSAGES), feed(new JsonFrameDecoder(bufferPool), stream, stream.length));
+    }
+
+    @Test
+    public void jsonJoinsSplitFrames() throws IOException {
+        byte[] stream = String.join("", MESSAGES).getBytes(StandardCharsets.UTF_8);
+        for (int chunk = 1; chunk < stream.length; chunk += 7) {
+            assertEquals(Arrays.asList(MESSAGES), feed(new JsonFrameDecoder(bufferPool), stream, chunk));
+        }
+    }
+
+    @Test
+    public void jsonGrowsForFrameLargerThanPooledBuffer() throws IOException {
+        String large = "{\"text\":\"" + repeat('x', 1000) + "\"}";
+        byte[] stream = (large + MESSAGES[0]).getBytes(StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList(large, MESSAGES[0]), feed(new JsonFrameDecoder(bufferPool), stream, 100));
+    }
+
+    @Test(expected = IOException.class)
+    public void jsonRejectsOversizedFrame() throws IOException {
+        FrameDecoder decoder = new JsonFrameDecoder(bufferPool);
+        feed(decoder, "{\"text\":\"".getBytes(StandardCharsets.UTF_8), 64);
+        byte[] chunk = new byte[64 * 1024];
+        Arrays.fill(chunk, (byte) 'x');
+        for (int i = 0; i <= FrameDecoder.MAX_FRAME_SIZE / chunk.length; i++) {
+            feed(decoder, chunk, chunk.length);
+        }
+    }
+
+    @Test
+    public void lengthPrefixedSplitsMergedFrames() throws IOException {
+        byte[] stream = prefixed(MESSAGES);
+        assertEquals(Arrays.asList(MESSAGES), feed(new LengthPrefixedFrameDecoder(bufferPool), stream, stream.length));
+    }
+
+    @Test
+    public void lengthPrefixedJoinsSplitFramesAndPrefixes() throws IOException {
+        String large = repeat('y', 300);
+        byte[] stream = prefixed(MESSAGES[0], large, MESSAGES[1]);
+        for (int chunk = 1; chunk < stream.length; chunk += 5) {
+            assertEquals(Arrays.asList(MESSAGES[0], large, MESSAGES[1]),
+                    feed(new LengthPrefixedFrameDecoder(bufferPool), stream, chunk));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void lengthPrefixedRejectsOversizedFrame() throws IOException {
+        BinaryWriter writer = new BinaryWriter();
+        writer.writeVarint(FrameDecoder.MAX_FRAME_SIZE + 1);
+        ByteBuffer prefix = writer.body();
+        byte[] stream = new byte[prefix.remaining()];
+        prefix.get(stream);
+        feed(new LengthPrefixedFrameDecoder(bufferPool), stream, stream.length);
+    }
+
+    @Test
+    public void stoppedDecoderHandsTheRestToTheNextDecoder() throws IOException {
+        byte[] json = MESSAGES[0].getBytes(StandardCharsets.UTF_8);
+        byte[] binary = prefixed(MESSAGES[1], MESSAGES[2]);
+        byte[] stream = Arrays.copyOf(json, json.length + binary.length);
+        System.arraycopy(binary, 0, stream, json.length, binary.length);
+
+        FrameDecoder decoder = new JsonFrameDecoder(bufferPool);
+        decoder.getReadBuffer().put(stream, 0, 60);
+        List<String> frames = new ArrayList<>();
+        assertFalse(decoder.decode(frame -> {
+            frames.add(StandardCharsets.UTF_8.decode(frame).toString());
+            return false;
+        }));
+        FrameDecoder next = new LengthPrefixedFrameDecoder(bufferPool);
+        decoder.transferTo(next);
+        frames.addAll(feed(next, Arrays.copyOfRange(stream, 60, stream.length), 16));
+
+        assertEquals(Arrays.asList(MESSAGES), frames);
+    }
+
+    /**
+     * Writes the stream to the decoder in chunks of the given size, as the socket reads would.
+     * */
+    private static List<String> feed(FrameDecoder decoder, byte[] stream, int chunkSize) throws IOException {
+        List<String> frames = new ArrayList<>();
+        for (int offset = 0; offset < stream.length; ) {
+            ByteBuffer readBuffer = decoder.getReadBuffer();
+            int chunk = Math.min(Math.min(chunkSize, stream.length - offset), readBuffer.remaining());
+            readBuffer.put(stream, offset, chunk);
+            offset += chunk;
+            decoder.decode(frame -> {
+                frames.add(StandardCharsets.UTF_8.decode(frame).toString());
+                return true;
+            });
+        }
+        return frames;
+    }
+
+    private static byte[] prefixed(String... messages) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (String message : messages) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            for (int length = bytes.length; ; length >>>= 7) {
+                if (length < 0x80) {
+                    stream.write(length);
+                    break;
+                }
+                stream.write(length & 0x7F | 0x80);
+            }
+            stream.write(bytes, 0, bytes.length);
+        }
+        return stream.toByteArray();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
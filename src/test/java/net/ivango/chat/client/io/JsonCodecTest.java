@@ -0,0 +1,37 @@
+package net.ivango.chat.client.io;
+
+import com.google.gson.Gson;
+import net.ivango.chat.common.responses.IncomingMessage;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class JsonCodecTest {
+
+    private static final Gson gson = new Gson();
+
+    private final JsonCodec json = new JsonCodec();
+
+    @Test
+    public void roundTripsAndPeeksType() throws Exception {
+        IncomingMessage message = gson.fromJson(
+                "{\"from\":\"f\",\"message\":\"\\\"}é\",\"senderName\":\"s\",\"broadcast\":false}", IncomingMessage.class);
+        ByteBuffer frame = json.encode(message);
+        assertTrue(StandardCharsets.UTF_8.decode(frame.duplicate()).toString().startsWith("{\"className\":"));
+        assertEquals(IncomingMessage.class, json.peekType(frame));
+        assertEquals(gson.toJson(message), gson.toJson(json.decode(frame)));
+    }
+
+    @Test
+    public void doesNotPeekOtherJson() {
+        assertNull(json.peekType(ByteBuffer.wrap("{\"body\":{}}".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test(expected = MalformedMessageException.class)
+    public void rejectsBrokenJson() throws Exception {
+        json.decode(ByteBuffer.wrap("{\"className\":".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,89 @@
+package net.ivango.chat.client.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MessageWriterTest {
+
+    private ServerSocket server;
+    private Socket peer;
+    private AsynchronousSocketChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        channel = AsynchronousSocketChannel.open();
+        channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort())).get(5, TimeUnit.SECONDS);
+        peer = server.accept();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel.close();
+        peer.close();
+        server.close();
+    }
+
+    @Test
+    public void writesQueuedMessagesInOrder() throws Exception {
+        MessageWriter writer = new MessageWriter(channel, 1024 * 1024);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            writes.add(writer.write(ByteBuffer.wrap(new byte[] {(byte) i})));
+        }
+        for (CompletableFuture<Void> write : writes) {
+            write.get(5, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, peer.getInputStream().read());
+        }
+        assertEquals(0, writer.getQueuedBytes());
+    }
+
+    @Test
+    public void closeFailsQueuedAndInFlightMessagesOnce() throws Exception {
+        /* the peer never reads, so a write stays in flight */
+        MessageWriter writer = new MessageWriter(channel, Long.MAX_VALUE);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            writes.add(writer.write(ByteBuffer.allocate(256 * 1024)));
+        }
+        writer.close();
+        assertTrue(writer.write(ByteBuffer.allocate(1)).isCompletedExceptionally());
+        /* the in-flight write fails once the channel is closed */
+        channel.close();
+
+        int failed = 0;
+        for (CompletableFuture<Void> write : writes) {
+            try {
+                write.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                failed++;
+            }
+        }
+        assertTrue(failed > 0);
+        assertEquals(0, writer.getQueuedBytes());
+        try {
+            writes.get(writes.size() - 1).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+    }
+}
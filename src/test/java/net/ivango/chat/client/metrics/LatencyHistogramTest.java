@@ -0,0 +1,63 @@
+package net.ivango.chat.client.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void countsSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 16; i++) {
+            histogram.record(i);
+        }
+        assertEquals(16, histogram.getCount());
+        assertEquals(7.5, histogram.getMean(), 0);
+        assertEquals(7, histogram.getPercentile(0.5));
+        assertEquals(15, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void bucketBoundsAreWithinSixteenthOfValue() {
+        for (long value = 16; value > 0 && value < Long.MAX_VALUE / 2; value = value * 3 / 2 + 1) {
+            for (long v : new long[] {value - 1, value, value + 1}) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                histogram.record(v);
+                histogram.record(Long.MAX_VALUE);
+                long bound = histogram.getPercentile(0.5);
+                assertTrue(v + " <= " + bound, bound >= v);
+                assertTrue(v + " bounded by " + bound, bound - v <= v / 16);
+            }
+        }
+    }
+
+    @Test
+    public void percentilesNeverExceedMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(1000 + i);
+        }
+        histogram.record(-5);
+        assertEquals(2000, histogram.getMax());
+        assertEquals(2000, histogram.getPercentile(1));
+        long p50 = histogram.getPercentile(0.5);
+        assertTrue(p50 >= 1500 && p50 <= 1500 + 1500 / 16);
+    }
+
+    @Test
+    public void addMergesAndResetClears() {
+        LatencyHistogram a = new LatencyHistogram(), b = new LatencyHistogram();
+        a.record(10);
+        b.record(20);
+        b.record(30);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(30, a.getMax());
+        assertEquals(20, a.getMean(), 0);
+
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getPercentile(0.99));
+    }
+}
@@ -0,0 +1,137 @@
+package net.ivango.chat.client.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageStoreTest {
+
+    private static final String FIRST_LOG = String.format("%020d", 0) + LogSegment.LOG_SUFFIX;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackAndSearchesAcrossSegmentsAfterReopen() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MessageStore store = MessageStore.open(directory);
+        for (int i = 0; i < 20_000; i++) {
+            store.append(i, "user" + i % 10, "message " + i + (i % 1000 == 0 ? " rare" : ""), false, i % 2 == 0);
+        }
+        store.close();
+
+        store = MessageStore.open(directory);
+        try {
+            assertEquals(20_000, store.size());
+            List<StoredMessage> recent = store.readRecent(3);
+            assertEquals(19_997, recent.get(0).getId());
+            assertEquals("message 19999", recent.get(2).getText());
+            assertEquals("user9", recent.get(2).getSender());
+            assertFalse(recent.get(2).isOwn());
+
+            List<StoredMessage> found = store.search("RARE", 100);
+            assertEquals(20, found.size());
+            assertEquals(19_000, found.get(0).getTime());
+            assertEquals(0, found.get(19).getTime());
+            assertEquals(1, store.search("rare user0", 1).size());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void dropsTruncatedTail() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        appendMessages(directory, 3);
+        Path log = directory.resolve(FIRST_LOG);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        long intact = twoMessageLogSize(directory);
+
+        MessageStore store = MessageStore.open(directory);
+        try {
+            assertEquals(2, store.size());
+            assertEquals(intact, Files.size(log));
+            assertEquals(2, store.append(3, "user", "after the crash", false, false).getId());
+            assertEquals("after the crash", store.readRecent(1).get(0).getText());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void dropsRecordsFromCrcMismatch() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        appendMessages(directory, 3);
+        long intact = twoMessageLogSize(directory);
+        Path log = directory.resolve(FIRST_LOG);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            /* the last byte of the first record, its text */
+            long position = intact / 2 - 1;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.flip();
+            b.put(0, (byte) (b.get(0) ^ 1));
+            channel.write(b, position);
+        }
+
+        MessageStore store = MessageStore.open(directory);
+        try {
+            assertEquals(0, store.size());
+            assertEquals(0, Files.size(log));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void rebuildsMissingIndexOfSealedSegment() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MessageStore store = MessageStore.open(directory);
+        for (int i = 0; i < 16_385; i++) {
+            store.append(i, "user", "message " + i, false, false);
+        }
+        store.close();
+        Files.delete(directory.resolve(String.format("%020d", 0) + ".idx"));
+
+        store = MessageStore.open(directory);
+        try {
+            assertEquals(16_385, store.size());
+            assertEquals(1, store.search("message 100", 10).size());
+            assertEquals("message 16383", store.readRecent(2).get(0).getText());
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void appendMessages(Path directory, int count) throws IOException {
+        MessageStore store = MessageStore.open(directory);
+        try {
+            for (int i = 0; i < count; i++) {
+                store.append(i, "user", "text " + i, false, false);
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Returns the log size of the first two messages appended by appendMessages, the records are of the same size.
+     * */
+    private long twoMessageLogSize(Path directory) throws IOException {
+        Path other = folder.newFolder().toPath();
+        appendMessages(other, 2);
+        return Files.size(other.resolve(FIRST_LOG));
+    }
+}
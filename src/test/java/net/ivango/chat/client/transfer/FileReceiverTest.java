@@ -0,0 +1,125 @@
+package net.ivango.chat.client.transfer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class FileReceiverTest {
+
+    private static final long SIZE = 1000, MODIFIED = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory, part, info;
+    private byte[] content;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath().resolve("downloads");
+        part = directory.resolve("notes.txt.bob.part");
+        info = directory.resolve("notes.txt.bob.part.info");
+        content = new byte[(int) SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+    }
+
+    @Test
+    public void startsFromZeroWithoutPartialFile() throws IOException {
+        assertEquals(0, prepare(offer("bob", MODIFIED)));
+        assertEquals(0, Files.size(part));
+        assertTrue(Files.exists(info));
+    }
+
+    @Test
+    public void resumesVerifiedPartOfSameFile() throws IOException {
+        interrupted("bob", MODIFIED, 400, 600);
+
+        FileTransfer transfer = offer("bob", MODIFIED);
+        assertEquals(400, prepare(transfer));
+        assertEquals(400, transfer.getTransferred());
+        /* the unverified tail is dropped */
+        assertArrayEquals(Arrays.copyOf(content, 400), Files.readAllBytes(part));
+    }
+
+    @Test
+    public void restartsPartOfAnotherFile() throws IOException {
+        interrupted("bob", MODIFIED, 400, 400);
+        assertEquals(0, prepare(offer("bob", MODIFIED + 1)));
+        assertEquals(0, Files.size(part));
+
+        interrupted("alice", MODIFIED, 400, 400);
+        assertEquals(0, prepare(offer("bob", MODIFIED)));
+        assertEquals(0, Files.size(part));
+    }
+
+    @Test
+    public void keepsPartsOfDifferentSendersApart() throws IOException {
+        interrupted("bob", MODIFIED, 400, 600);
+
+        assertEquals(0, prepare(offer("alice", MODIFIED)));
+        assertTrue(Files.exists(directory.resolve("notes.txt.alice.part")));
+        assertEquals(600, Files.size(part));
+        assertEquals(400, prepare(offer("bob", MODIFIED)));
+    }
+
+    @Test
+    public void restartsDamagedPart() throws IOException {
+        interrupted("bob", MODIFIED, 400, 400);
+        byte[] damaged = Arrays.copyOf(content, 400);
+        damaged[100] ^= 1;
+        Files.write(part, damaged);
+
+        assertEquals(0, prepare(offer("bob", MODIFIED)));
+        assertEquals(0, Files.size(part));
+    }
+
+    @Test
+    public void restartsPartWithoutInfo() throws IOException {
+        Files.createDirectories(directory);
+        Files.write(part, Arrays.copyOf(content, 400));
+
+        assertEquals(0, prepare(offer("bob", MODIFIED)));
+        assertEquals(0, Files.size(part));
+    }
+
+    private FileTransfer offer(String sender, long modified) {
+        return new FileTransfer("id", false, "/10.0.0.1:5000", sender, "notes.txt", SIZE, modified, null);
+    }
+
+    private long prepare(FileTransfer transfer) throws IOException {
+        return new FileReceiver(transfer, null, directory).prepare();
+    }
+
+    /**
+     * Leaves the partial file of an interrupted transfer: the written bytes, the verified ones recorded.
+     * */
+    private void interrupted(String sender, long modified, int verified, int written) throws IOException {
+        Files.createDirectories(directory);
+        Files.write(part, Arrays.copyOf(content, written));
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, verified);
+        Properties saved = new Properties();
+        saved.setProperty("sender", sender);
+        saved.setProperty("name", "notes.txt");
+        saved.setProperty("size", Long.toString(SIZE));
+        saved.setProperty("modified", Long.toString(modified));
+        saved.setProperty("length", Integer.toString(verified));
+        saved.setProperty("crc", Long.toString(crc.getValue()));
+        try (OutputStream out = Files.newOutputStream(info)) {
+            saved.store(out, null);
+        }
+    }
+}
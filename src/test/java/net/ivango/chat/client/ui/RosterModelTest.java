@@ -0,0 +1,133 @@
+package net.ivango.chat.client.ui;
+
+import com.google.gson.Gson;
+import javafx.collections.ListChangeListener;
+import net.ivango.chat.common.responses.BroadCastUser;
+import net.ivango.chat.common.responses.User;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RosterModelTest {
+
+    private static final Gson gson = new Gson();
+
+    @Test
+    public void keepsTheUsersSortedAndTheBroadcastReceiver() {
+        RosterModel roster = new RosterModel();
+        roster.setUsers(users(3, 2, 1));
+
+        assertEquals(names(users(1, 2, 3)), names(roster.getUsers()));
+        assertEquals(4, roster.getReceivers().size());
+        assertTrue(roster.getReceivers().contains(BroadCastUser.INSTANCE));
+        assertSame(roster.getUsers().get(1), roster.find(user(2)));
+        assertNull(roster.find(user(4)));
+    }
+
+    @Test
+    public void firesSmallDiffAsSingleChange() {
+        RosterModel roster = new RosterModel();
+        roster.setUsers(range(0, 100));
+        int[] changes = new int[1];
+        roster.getUsers().addListener((ListChangeListener<User>) change -> changes[0]++);
+
+        List<User> next = range(5, 110);
+        roster.setUsers(next);
+
+        assertEquals(1, changes[0]);
+        assertEquals(names(sorted(next)), names(roster.getUsers()));
+    }
+
+    @Test
+    public void replacesLargeDiffWithSingleChange() {
+        RosterModel roster = new RosterModel();
+        roster.setUsers(range(0, 1000));
+        int[] changes = new int[1];
+        roster.getUsers().addListener((ListChangeListener<User>) change -> changes[0]++);
+
+        List<User> next = range(500, 1500);
+        roster.setUsers(next);
+
+        assertEquals(1, changes[0]);
+        assertEquals(names(sorted(next)), names(roster.getUsers()));
+        assertEquals(next.size() + 1, roster.getReceivers().size());
+    }
+
+    @Test
+    public void mergesLargeDiffKeepingUnchangedUsers() {
+        RosterModel roster = new RosterModel();
+        roster.setUsers(range(0, 50_000));
+        User kept = roster.getUsers().get(roster.getUsers().size() / 2);
+        List<User> before = new ArrayList<>(roster.getUsers());
+        List<User> replayed = new ArrayList<>(before);
+        roster.getUsers().addListener((ListChangeListener<User>) change -> {
+            while (change.next()) {
+                /* the sub-changes are in the order of the list, so they are applied in order */
+                replayed.subList(change.getFrom(), change.getFrom() + change.getRemovedSize()).clear();
+                replayed.addAll(change.getFrom(), change.getAddedSubList());
+            }
+        });
+
+        List<User> next = range(5_000, 55_000);
+        long start = System.nanoTime();
+        roster.setUsers(next);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(names(sorted(next)), names(roster.getUsers()));
+        assertEquals(names(roster.getUsers()), names(replayed));
+        assertSame(kept, roster.find(kept));
+        assertSame(kept, roster.getUsers().get(Collections.binarySearch(names(roster.getUsers()), kept.getUserName())));
+        assertEquals(next.size() + 1, roster.getReceivers().size());
+        assertTrue(millis + " ms", millis < 1000);
+    }
+
+    @Test
+    public void appliesPresenceChanges() {
+        RosterModel roster = new RosterModel();
+        roster.setUsers(users(1, 2));
+
+        roster.applyChanges(users(3), users(1));
+
+        assertEquals(names(users(2, 3)), names(roster.getUsers()));
+        assertNull(roster.find(user(1)));
+    }
+
+    private static User user(int i) {
+        return gson.fromJson("{\"userName\":\"user" + i + "\",\"address\":\"/10.0.0." + i + ":5000\"}", User.class);
+    }
+
+    private static List<User> users(int... ids) {
+        List<User> users = new ArrayList<>();
+        for (int id : ids) {
+            users.add(user(id));
+        }
+        return users;
+    }
+
+    private static List<User> range(int from, int to) {
+        List<User> users = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            users.add(user(i));
+        }
+        Collections.shuffle(users);
+        return users;
+    }
+
+    private static List<String> names(List<User> users) {
+        List<String> names = new ArrayList<>();
+        for (User user : users) {
+            names.add(user.getUserName());
+        }
+        return names;
+    }
+
+    private static List<User> sorted(List<User> users) {
+        List<User> sorted = new ArrayList<>(users);
+        sorted.sort((a, b) -> a.getUserName().compareTo(b.getUserName()));
+        return sorted;
+    }
+}